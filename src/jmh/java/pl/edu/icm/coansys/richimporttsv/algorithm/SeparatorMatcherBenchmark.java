@@ -0,0 +1,84 @@
+package pl.edu.icm.coansys.richimporttsv.algorithm;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import pl.edu.icm.coansys.richimporttsv.benchmark.Records;
+import pl.edu.icm.coansys.richimporttsv.benchmark.ThroughputCounters;
+
+/**
+ * Finds all the record separators of a hash3_dot3_dot3-like input, with the
+ * original KMPMatcher.indexOf (which computes the failure function on each
+ * call), a compiled KMPMatcher and the matcher chosen by
+ * SeparatorMatcher.compile, and with an AhoCorasickMatcher also looking for an
+ * alternative separator which does not occur.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class SeparatorMatcherBenchmark {
+
+    @Param({"1", "2", "3", "8"})
+    public int separatorLength;
+    private byte[] separator;
+    private byte[] text;
+    private KMPMatcher kmpMatcher;
+    private SeparatorMatcher compiledMatcher;
+    private SeparatorMatcher alternativesMatcher;
+
+    @Setup
+    public void setUp() {
+        separator = Bytes.toBytes("#|~^!%&*".substring(0, separatorLength));
+        text = Records.join(Records.hash3Records(1024, 4, 64, 0), Bytes.toString(separator));
+        kmpMatcher = new KMPMatcher(separator);
+        compiledMatcher = SeparatorMatcher.compile(separator);
+        alternativesMatcher = new AhoCorasickMatcher(new byte[][]{separator, Bytes.toBytes("\r\n\r\n")});
+    }
+
+    @Benchmark
+    public int kmpStatic(ThroughputCounters counters) {
+        int count = 0;
+        int from = 0;
+        int found;
+        while ((found = KMPMatcher.indexOf(text, from, separator, text.length)) != KMPMatcher.FAILURE) {
+            from = found + separator.length;
+            count++;
+        }
+        counters.add(count, text.length);
+        return count;
+    }
+
+    @Benchmark
+    public int kmpCompiled(ThroughputCounters counters) {
+        return countAll(kmpMatcher, counters);
+    }
+
+    @Benchmark
+    public int compiled(ThroughputCounters counters) {
+        return countAll(compiledMatcher, counters);
+    }
+
+    @Benchmark
+    public int alternatives(ThroughputCounters counters) {
+        return countAll(alternativesMatcher, counters);
+    }
+
+    private int countAll(SeparatorMatcher matcher, ThroughputCounters counters) {
+        int count = 0;
+        int from = 0;
+        int found;
+        while ((found = matcher.indexOf(text, from, text.length)) != SeparatorMatcher.FAILURE) {
+            from = found + matcher.getMatchLength();
+            count++;
+        }
+        counters.add(count, text.length);
+        return count;
+    }
+}
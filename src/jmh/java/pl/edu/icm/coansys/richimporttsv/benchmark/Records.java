@@ -0,0 +1,110 @@
+package pl.edu.icm.coansys.richimporttsv.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Generates synthetic input shaped like the test fixtures: enwiki.dat
+ * (records of 13 fields separated by new lines, separated by empty lines)
+ * and hash3_dot3_dot3.dat (fields separated by "...", records by "###").
+ */
+public class Records {
+
+    public final static String ENWIKI_COLUMNS = "HBASE_ROW_KEY,m:cat,m:im,m:main,m:talk,m:us,m:us_talk,m:oth,m:exter,m:templ,m:comm,m:minor,m:textdata";
+    public final static String ENWIKI_PROJECTION_COLUMNS = "HBASE_ROW_KEY,m:cat,m:im,m:main,_,_,_,_,_,_,_,_,_";
+    public final static String ENWIKI_SEPARATOR = "\n";
+    public final static String ENWIKI_RECORD_SEPARATOR = "\n\n";
+    public final static String HASH3_SEPARATOR = "...";
+    public final static String HASH3_RECORD_SEPARATOR = "###";
+    private final static String[] ENWIKI_FIELDS = {
+        "CATEGORY", "IMAGE", "MAIN", "TALK", "USER", "USER_TALK", "OTHER",
+        "EXTERNAL", "TEMPLATE", "COMMENT", "MINOR", "TEXTDATA"};
+    private final static String ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789_:/";
+
+    /**
+     * Returns the column specification of a table with the row key and the
+     * given number of other columns.
+     */
+    public static String columns(int columnCount) {
+        StringBuilder columns = new StringBuilder("HBASE_ROW_KEY");
+        for (int i = 1; i < columnCount; i++) {
+            columns.append(",cf:c").append(i);
+        }
+        return columns.toString();
+    }
+
+    private static String word(Random random, int length) {
+        char[] word = new char[length];
+        for (int i = 0; i < length; i++) {
+            word[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+        }
+        return new String(word);
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            words.append(' ').append(word(random, 4 + random.nextInt(20)));
+        }
+        return words.toString();
+    }
+
+    /**
+     * Returns a record like those of enwiki.dat, i.e. a revision header
+     * followed by the labelled lists of links, without the record separator.
+     */
+    public static byte[] enwikiRecord(Random random) {
+        StringBuilder record = new StringBuilder("REVISION");
+        record.append(' ').append(random.nextInt(10000000)).append(' ').append(random.nextInt(100000000))
+                .append(' ').append(word(random, 16)).append(" 2006-08-28T14:11:16Z ").append(word(random, 10))
+                .append(' ').append(random.nextInt(1000000));
+        for (String field : ENWIKI_FIELDS) {
+            record.append(ENWIKI_SEPARATOR).append(field).append(words(random, random.nextInt(8)));
+        }
+        return Bytes.toBytes(record.toString());
+    }
+
+    /**
+     * Returns a record like those of hash3_dot3_dot3.dat, with the given
+     * number of fields (including the row key) of the given size.
+     */
+    public static byte[] hash3Record(Random random, int columnCount, int fieldSize) {
+        StringBuilder record = new StringBuilder("KEY").append(random.nextInt(Integer.MAX_VALUE));
+        for (int i = 1; i < columnCount; i++) {
+            record.append(HASH3_SEPARATOR).append(word(random, fieldSize));
+        }
+        return Bytes.toBytes(record.toString());
+    }
+
+    public static byte[][] enwikiRecords(int count, long seed) {
+        Random random = new Random(seed);
+        byte[][] records = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            records[i] = enwikiRecord(random);
+        }
+        return records;
+    }
+
+    public static byte[][] hash3Records(int count, int columnCount, int fieldSize, long seed) {
+        Random random = new Random(seed);
+        byte[][] records = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            records[i] = hash3Record(random, columnCount, fieldSize);
+        }
+        return records;
+    }
+
+    /**
+     * Joins the records into the content of an input file.
+     */
+    public static byte[] join(byte[][] records, String recordSeparator) {
+        byte[] separator = Bytes.toBytes(recordSeparator);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] record : records) {
+            out.write(record, 0, record.length);
+            out.write(separator, 0, separator.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,30 @@
+package pl.edu.icm.coansys.richimporttsv.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the records and bytes processed by a benchmark, so that JMH
+ * reports them per second next to the operations.
+ */
+@State(Scope.Thread)
+@AuxCounters
+public class ThroughputCounters {
+
+    public long records;
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        records = 0;
+        bytes = 0;
+    }
+
+    public void add(long records, long bytes) {
+        this.records += records;
+        this.bytes += bytes;
+    }
+}
@@ -0,0 +1,82 @@
+package pl.edu.icm.coansys.richimporttsv.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import pl.edu.icm.coansys.richimporttsv.benchmark.Records;
+import pl.edu.icm.coansys.richimporttsv.benchmark.ThroughputCounters;
+
+/**
+ * Reads a whole local file of enwiki-like or hash3_dot3_dot3-like records.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class SeparatorRecordReaderBenchmark {
+
+    @Param({"enwiki", "hash3"})
+    public String input;
+    @Param({"65536", "1048576"})
+    public int bufferSize;
+    private File file;
+    private Path path;
+    private Configuration conf;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] content;
+        conf = new Configuration();
+        if ("enwiki".equals(input)) {
+            content = Records.join(Records.enwikiRecords(64 * 1024, 0), Records.ENWIKI_RECORD_SEPARATOR);
+            conf.set(SeparatorRecordReader.RECORD_SEPARATOR_CONF_KEY, Records.ENWIKI_RECORD_SEPARATOR);
+        } else {
+            content = Records.join(Records.hash3Records(64 * 1024, 3, 128, 0), Records.HASH3_RECORD_SEPARATOR);
+            conf.set(SeparatorRecordReader.RECORD_SEPARATOR_CONF_KEY, Records.HASH3_RECORD_SEPARATOR);
+        }
+        conf.setInt(SeparatorRecordReader.BUFFER_SIZE_CONF_KEY, bufferSize);
+
+        file = File.createTempFile("SeparatorRecordReaderBenchmark", ".dat");
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        path = new Path(file.toURI());
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public long read(ThroughputCounters counters) throws IOException {
+        SeparatorRecordReader reader = new SeparatorRecordReader();
+        reader.initialize(new FileSplit(path, 0, file.length(), null), conf);
+        long records = 0;
+        try {
+            while (reader.nextKeyValue()) {
+                records++;
+            }
+        } finally {
+            reader.close();
+        }
+        counters.add(records, file.length());
+        return records;
+    }
+}
@@ -0,0 +1,132 @@
+package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Base64;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import pl.edu.icm.coansys.richimporttsv.benchmark.Records;
+import pl.edu.icm.coansys.richimporttsv.benchmark.ThroughputCounters;
+
+/**
+ * Maps enwiki-like or hash3_dot3_dot3-like records to Puts or KeyValues,
+ * with a context whose writer only counts the output.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class RichTsvImporterMapperBenchmark {
+
+    private final static int RECORDS = 1024;
+    @Param({"enwiki", "hash3"})
+    public String input;
+    @Param({"false", "true"})
+    public boolean keyValueOutput;
+    private Text[] values;
+    private final LongWritable offset = new LongWritable();
+    private RichTsvImporterMapper mapper;
+    private RichTsvImporterMapper.Context context;
+    private CountingRecordWriter writer;
+    private int next = 0;
+
+    /**
+     * Discards the output, accepting both Puts and KeyValues.
+     */
+    private static class CountingRecordWriter extends RecordWriter<Object, Object> {
+
+        long writes = 0;
+
+        @Override
+        public void write(Object key, Object value) {
+            writes++;
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) {
+        }
+    }
+
+    private static class NullStatusReporter extends StatusReporter {
+
+        private final Counters counters = new Counters();
+
+        @Override
+        public Counter getCounter(Enum<?> name) {
+            return counters.findCounter(name);
+        }
+
+        @Override
+        public Counter getCounter(String group, String name) {
+            return counters.findCounter(group, name);
+        }
+
+        @Override
+        public void progress() {
+        }
+
+        @Override
+        public void setStatus(String status) {
+        }
+
+        public float getProgress() {
+            return 0;
+        }
+    }
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws IOException, InterruptedException {
+        Configuration conf = new Configuration();
+        byte[][] records;
+        if ("enwiki".equals(input)) {
+            records = Records.enwikiRecords(RECORDS, 0);
+            conf.set(RichImportTsv.COLUMNS_CONF_KEY, Records.ENWIKI_COLUMNS);
+            conf.set(RichImportTsv.SEPARATOR_CONF_KEY, Base64.encodeBytes(Bytes.toBytes(Records.ENWIKI_SEPARATOR)));
+            conf.set(RichImportTsv.SKIP_UNTIL_SEPARATOR_CONF_KEY, " ");
+        } else {
+            records = Records.hash3Records(RECORDS, 3, 128, 0);
+            conf.set(RichImportTsv.COLUMNS_CONF_KEY, Records.columns(3));
+            conf.set(RichImportTsv.SEPARATOR_CONF_KEY, Base64.encodeBytes(Bytes.toBytes(Records.HASH3_SEPARATOR)));
+        }
+        conf.setLong(RichImportTsv.TIMESTAMP_CONF_KEY, 1L);
+        conf.setBoolean(RichTsvImporterMapper.KEYVALUE_OUTPUT_CONF_KEY, keyValueOutput);
+
+        values = new Text[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            values[i] = new Text(records[i]);
+        }
+
+        mapper = new RichTsvImporterMapper();
+        writer = new CountingRecordWriter();
+        RecordWriter<ImmutableBytesWritable, Put> output = (RecordWriter) writer;
+        context = mapper.new Context(conf, new TaskAttemptID(), null, output, null, new NullStatusReporter(), null);
+        mapper.setup(context);
+    }
+
+    @Benchmark
+    public long map(ThroughputCounters counters) throws IOException {
+        Text value = values[next++ & (RECORDS - 1)];
+        offset.set(offset.get() + value.getLength());
+        mapper.map(offset, value, context);
+        counters.add(1, value.getLength());
+        return writer.writes;
+    }
+}
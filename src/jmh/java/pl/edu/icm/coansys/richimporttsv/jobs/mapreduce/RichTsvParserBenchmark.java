@@ -0,0 +1,65 @@
+package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import pl.edu.icm.coansys.richimporttsv.benchmark.Records;
+import pl.edu.icm.coansys.richimporttsv.benchmark.ThroughputCounters;
+
+/**
+ * Parses hash3_dot3_dot3-like records of various widths and field sizes,
+ * and enwiki-like records (also with all but the first few columns ignored).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class RichTsvParserBenchmark {
+
+    private final static int RECORDS = 1024;
+    @Param({"2", "12", "50"})
+    public int columnCount;
+    @Param({"8", "128", "2048"})
+    public int fieldSize;
+    private byte[][] records;
+    private RichImportTsv.RichTsvParser parser;
+    private byte[][] enwikiRecords;
+    private RichImportTsv.RichTsvParser enwikiParser;
+    private RichImportTsv.RichTsvParser enwikiProjectionParser;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        records = Records.hash3Records(RECORDS, columnCount, fieldSize, 0);
+        parser = new RichImportTsv.RichTsvParser(Records.columns(columnCount), Records.HASH3_SEPARATOR);
+        enwikiRecords = Records.enwikiRecords(RECORDS, 0);
+        enwikiParser = new RichImportTsv.RichTsvParser(Records.ENWIKI_COLUMNS, Records.ENWIKI_SEPARATOR);
+        enwikiProjectionParser = new RichImportTsv.RichTsvParser(Records.ENWIKI_PROJECTION_COLUMNS, Records.ENWIKI_SEPARATOR);
+    }
+
+    @Benchmark
+    public int parse(ThroughputCounters counters) throws RichImportTsv.RichTsvParser.BadTsvLineException {
+        byte[] record = records[next++ & (RECORDS - 1)];
+        counters.add(1, record.length);
+        return parser.parse(record, record.length).getColumnCount();
+    }
+
+    @Benchmark
+    public int parseEnwiki(ThroughputCounters counters) throws RichImportTsv.RichTsvParser.BadTsvLineException {
+        byte[] record = enwikiRecords[next++ & (RECORDS - 1)];
+        counters.add(1, record.length);
+        return enwikiParser.parse(record, record.length).getColumnCount();
+    }
+
+    @Benchmark
+    public int parseEnwikiProjection(ThroughputCounters counters) throws RichImportTsv.RichTsvParser.BadTsvLineException {
+        byte[] record = enwikiRecords[next++ & (RECORDS - 1)];
+        counters.add(1, record.length);
+        return enwikiProjectionParser.parse(record, record.length).getColumnCount();
+    }
+}
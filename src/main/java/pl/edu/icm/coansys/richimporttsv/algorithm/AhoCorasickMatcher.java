@@ -0,0 +1,141 @@
+package pl.edu.icm.coansys.richimporttsv.algorithm;
+
+import java.util.Arrays;
+
+/**
+ * Searches for any of several alternative separators in a single pass, with
+ * the Aho-Corasick automaton of the separators compiled into a full
+ * transition table, so that each byte of the text costs one table lookup.
+ *
+ * Of the occurrences found, the one starting first is taken and, of those
+ * starting at the same position, the longest one. To make sure no longer
+ * occurrence starts earlier, the text is scanned up to getMaxLength() - 1
+ * bytes past the beginning of the first occurrence found.
+ */
+public class AhoCorasickMatcher extends SeparatorMatcher {
+
+    private static final int ALPHABET = 256;
+    private final int[] transitions;
+    // lengths of the separators ending in each state (including those found
+    // by following the failure links)
+    private final int[][] outputs;
+    private final int maxLength;
+    private int matchLength;
+
+    public AhoCorasickMatcher(byte[][] patterns) {
+        super(patterns);
+        int maxStates = 1;
+        int longest = 0;
+        for (byte[] p : patterns) {
+            maxStates += p.length;
+            longest = Math.max(longest, p.length);
+        }
+        maxLength = longest;
+
+        // the trie of the separators
+        int[] trie = new int[maxStates * ALPHABET];
+        Arrays.fill(trie, -1);
+        int[][] stateOutputs = new int[maxStates][];
+        int states = 1;
+        for (byte[] p : patterns) {
+            int state = 0;
+            for (byte b : p) {
+                int next = trie[state * ALPHABET + (b & 0xff)];
+                if (next == -1) {
+                    next = states++;
+                    trie[state * ALPHABET + (b & 0xff)] = next;
+                }
+                state = next;
+            }
+            stateOutputs[state] = append(stateOutputs[state], p.length);
+        }
+
+        // breadth-first, the missing transitions are taken from the failure
+        // state, which is shallower and thus already complete
+        int[] failure = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int b = 0; b < ALPHABET; b++) {
+            int next = trie[b];
+            if (next == -1) {
+                trie[b] = 0;
+            } else {
+                failure[next] = 0;
+                queue[tail++] = next;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            if (stateOutputs[failure[state]] != null) {
+                for (int length : stateOutputs[failure[state]]) {
+                    stateOutputs[state] = append(stateOutputs[state], length);
+                }
+            }
+            for (int b = 0; b < ALPHABET; b++) {
+                int next = trie[state * ALPHABET + b];
+                int fallback = trie[failure[state] * ALPHABET + b];
+                if (next == -1) {
+                    trie[state * ALPHABET + b] = fallback;
+                } else {
+                    failure[next] = fallback;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        transitions = Arrays.copyOf(trie, states * ALPHABET);
+        outputs = Arrays.copyOf(stateOutputs, states);
+    }
+
+    private static int[] append(int[] lengths, int length) {
+        if (lengths == null) {
+            return new int[]{length};
+        }
+        for (int l : lengths) {
+            if (l == length) {
+                return lengths;
+            }
+        }
+        int[] appended = Arrays.copyOf(lengths, lengths.length + 1);
+        appended[lengths.length] = length;
+        return appended;
+    }
+
+    @Override
+    public int indexOf(byte[] text, int from, int to) {
+        int state = 0;
+        int found = FAILURE;
+        int foundLength = 0;
+        int end = to;
+        for (int i = from; i < end; i++) {
+            state = transitions[state * ALPHABET + (text[i] & 0xff)];
+            int[] lengths = outputs[state];
+            if (lengths == null) {
+                continue;
+            }
+            for (int length : lengths) {
+                int start = i - length + 1;
+                if (found == FAILURE || start < found || (start == found && length > foundLength)) {
+                    found = start;
+                    foundLength = length;
+                }
+            }
+            // no occurrence starting at or before found ends any later
+            end = Math.min(to, found + maxLength);
+        }
+        if (found != FAILURE) {
+            matchLength = foundLength;
+        }
+        return found;
+    }
+
+    @Override
+    public int getMatchLength() {
+        return matchLength;
+    }
+
+    @Override
+    public int getMaxLength() {
+        return maxLength;
+    }
+}
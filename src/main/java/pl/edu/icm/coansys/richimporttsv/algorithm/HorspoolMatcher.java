@@ -0,0 +1,38 @@
+package pl.edu.icm.coansys.richimporttsv.algorithm;
+
+/**
+ * Searches for a separator using the Boyer-Moore-Horspool algorithm. The bad
+ * character shift table is computed once, in the constructor.
+ */
+public class HorspoolMatcher extends SeparatorMatcher {
+
+    private final int[] shifts = new int[256];
+
+    public HorspoolMatcher(byte[] pattern) {
+        super(pattern);
+        int last = pattern.length - 1;
+        for (int i = 0; i < shifts.length; i++) {
+            shifts[i] = pattern.length;
+        }
+        for (int i = 0; i < last; i++) {
+            shifts[pattern[i] & 0xff] = last - i;
+        }
+    }
+
+    @Override
+    public int indexOf(byte[] text, int from, int to) {
+        int last = pattern.length - 1;
+        int i = from;
+        while (i + last < to) {
+            int j = last;
+            while (text[i + j] == pattern[j]) {
+                if (j == 0) {
+                    return i;
+                }
+                j--;
+            }
+            i += shifts[text[i + last] & 0xff];
+        }
+        return FAILURE;
+    }
+}
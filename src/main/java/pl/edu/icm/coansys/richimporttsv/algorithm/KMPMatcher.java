@@ -8,9 +8,35 @@ package pl.edu.icm.coansys.richimporttsv.algorithm;
  *
  * @author akawa
  */
-public class KMPMatcher {
+public class KMPMatcher extends SeparatorMatcher {
     
     public static final int FAILURE = -1;
+    private final int[] failure;
+
+    /**
+     * Compiles the pattern, so that its failure function is computed only once.
+     */
+    public KMPMatcher(byte[] pattern) {
+        super(pattern);
+        failure = getFailures(pattern, pattern.length);
+    }
+
+    @Override
+    public int indexOf(byte[] text, int from, int to) {
+        int j = 0;
+        for (int i = from; i < to; i++) {
+            while (j > 0 && pattern[j] != text[i]) {
+                j = failure[j - 1];
+            }
+            if (pattern[j] == text[i]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i - pattern.length + 1;
+            }
+        }
+        return FAILURE;
+    }
 
     /**
      * Finds the first occurrence of the pattern in the text starting form index.
@@ -37,6 +63,15 @@ public class KMPMatcher {
         return FAILURE;
     }
 
+    /**
+     * Checks if a proper prefix of the pattern is also its suffix, i.e. if
+     * occurrences of the pattern may overlap.
+     */
+    static boolean hasBorder(byte[] pattern) {
+        int[] failure = getFailures(pattern, pattern.length);
+        return failure[pattern.length - 1] > 0;
+    }
+
     /**
      * Computes the failure function using a boot-strapping process, where the
      * pattern is matched against itself.
@@ -0,0 +1,189 @@
+package pl.edu.icm.coansys.richimporttsv.algorithm;
+
+import org.apache.hadoop.hbase.util.Hash;
+import org.apache.hadoop.hbase.util.MurmurHash;
+
+/**
+ * Rewrites row keys so that consecutive keys (e.g. increasing ids or
+ * timestamps) are spread over the regions of a table. The key is written
+ * into a buffer reused from record to record, so a transform must not be
+ * shared between threads. Use {@link #compile(String, int, int)} to get a
+ * transform by its name.
+ */
+public abstract class RowKeyTransform {
+
+    public static final String SALT = "salt";
+    public static final String REVERSE = "reverse";
+    public static final String HASH = "hash";
+    protected static final Hash HASH_FUNCTION = MurmurHash.getInstance();
+    private byte[] buffer = new byte[64];
+    private int length;
+
+    /**
+     * Transforms the key stored in the [offset, offset + keyLength) range of
+     * the bytes. The result is available from getBuffer() and getLength()
+     * until the next call.
+     */
+    public void transform(byte[] key, int offset, int keyLength) {
+        int maxLength = keyLength + getPrefixLength();
+        if (buffer.length < maxLength) {
+            buffer = new byte[Math.max(maxLength, 2 * buffer.length)];
+        }
+        length = transform(key, offset, keyLength, buffer);
+    }
+
+    /**
+     * Writes the transformed key to the beginning of the buffer, which has
+     * room for the key and its prefix, and returns its length.
+     */
+    protected abstract int transform(byte[] key, int offset, int keyLength, byte[] buffer);
+
+    /**
+     * Returns the number of bytes prepended to each key.
+     */
+    protected abstract int getPrefixLength();
+
+    /**
+     * Returns the keys at which the regions should start, so that the
+     * transformed keys are spread evenly over them (excluding the first,
+     * empty one).
+     */
+    public abstract byte[][] getSplitKeys();
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Writes the value as a big-endian number of the given width.
+     */
+    protected static void putPrefix(byte[] buffer, long value, int width) {
+        for (int i = width - 1; i >= 0; i--) {
+            buffer[i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+    /**
+     * Compiles the named transform: "salt" prepends the bucket (one of the
+     * given number) chosen by the hash of the key, "reverse" reverses the key
+     * and "hash" prepends the given number of bytes of the hash of the key.
+     * The table is split at the bucket boundaries or, for "hash", into the
+     * given number of ranges of the prefix.
+     */
+    public static RowKeyTransform compile(String name, int buckets, int hashWidth) {
+        if (SALT.equals(name)) {
+            return new SaltTransform(buckets);
+        } else if (REVERSE.equals(name)) {
+            return new ReverseTransform();
+        } else if (HASH.equals(name)) {
+            return new HashPrefixTransform(hashWidth, buckets);
+        }
+        throw new IllegalArgumentException("Unknown row key transform: " + name);
+    }
+
+    static class SaltTransform extends RowKeyTransform {
+
+        private final int buckets;
+        private final int width;
+
+        SaltTransform(int buckets) {
+            if (buckets < 1 || buckets > 1 << 16) {
+                throw new IllegalArgumentException("Number of buckets must be between 1 and 65536");
+            }
+            this.buckets = buckets;
+            width = buckets <= 1 << 8 ? 1 : 2;
+        }
+
+        @Override
+        protected int transform(byte[] key, int offset, int keyLength, byte[] buffer) {
+            int bucket = (HASH_FUNCTION.hash(key, offset, keyLength, -1) & Integer.MAX_VALUE) % buckets;
+            putPrefix(buffer, bucket, width);
+            System.arraycopy(key, offset, buffer, width, keyLength);
+            return width + keyLength;
+        }
+
+        @Override
+        protected int getPrefixLength() {
+            return width;
+        }
+
+        @Override
+        public byte[][] getSplitKeys() {
+            byte[][] splitKeys = new byte[buckets - 1][];
+            for (int i = 1; i < buckets; i++) {
+                splitKeys[i - 1] = new byte[width];
+                putPrefix(splitKeys[i - 1], i, width);
+            }
+            return splitKeys;
+        }
+    }
+
+    static class ReverseTransform extends RowKeyTransform {
+
+        @Override
+        protected int transform(byte[] key, int offset, int keyLength, byte[] buffer) {
+            for (int i = 0; i < keyLength; i++) {
+                buffer[i] = key[offset + keyLength - 1 - i];
+            }
+            return keyLength;
+        }
+
+        @Override
+        protected int getPrefixLength() {
+            return 0;
+        }
+
+        @Override
+        public byte[][] getSplitKeys() {
+            // the reversed keys are not uniform, so only sampling can tell
+            return new byte[0][];
+        }
+    }
+
+    static class HashPrefixTransform extends RowKeyTransform {
+
+        private final int width;
+        private final int regions;
+
+        HashPrefixTransform(int width, int regions) {
+            if (width < 1 || width > 4) {
+                throw new IllegalArgumentException("Width of the hash prefix must be between 1 and 4 bytes");
+            }
+            if (regions < 1 || regions > 1L << (8 * width)) {
+                throw new IllegalArgumentException("Number of regions must be between 1 and " + (1L << (8 * width)));
+            }
+            this.width = width;
+            this.regions = regions;
+        }
+
+        @Override
+        protected int transform(byte[] key, int offset, int keyLength, byte[] buffer) {
+            int hash = HASH_FUNCTION.hash(key, offset, keyLength, -1);
+            // the most significant bytes of the hash
+            putPrefix(buffer, (hash & 0xffffffffL) >>> (8 * (4 - width)), width);
+            System.arraycopy(key, offset, buffer, width, keyLength);
+            return width + keyLength;
+        }
+
+        @Override
+        protected int getPrefixLength() {
+            return width;
+        }
+
+        @Override
+        public byte[][] getSplitKeys() {
+            long range = 1L << (8 * width);
+            byte[][] splitKeys = new byte[regions - 1][];
+            for (int i = 1; i < regions; i++) {
+                splitKeys[i - 1] = new byte[width];
+                putPrefix(splitKeys[i - 1], range * i / regions, width);
+            }
+            return splitKeys;
+        }
+    }
+}
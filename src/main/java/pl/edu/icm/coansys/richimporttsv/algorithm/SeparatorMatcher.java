@@ -0,0 +1,136 @@
+package pl.edu.icm.coansys.richimporttsv.algorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Searches for a separator that is preprocessed only once, when the matcher
+ * is compiled. Use {@link #compile(byte[])} to get the strategy best suited for
+ * the given separator.
+ */
+public abstract class SeparatorMatcher {
+
+    public static final int FAILURE = -1;
+    protected final byte[] pattern;
+    private final boolean[] patternBytes = new boolean[256];
+    private final boolean selfOverlapping;
+
+    protected SeparatorMatcher(byte[] pattern) {
+        this(new byte[][]{pattern});
+    }
+
+    /**
+     * @param patterns alternative separators, the first of which is the
+     * pattern of the matcher
+     */
+    protected SeparatorMatcher(byte[][] patterns) {
+        if (patterns.length == 0) {
+            throw new IllegalArgumentException("No separator given");
+        }
+        for (byte[] p : patterns) {
+            if (p.length == 0) {
+                throw new IllegalArgumentException("Separator can not be empty");
+            }
+            for (byte b : p) {
+                patternBytes[b & 0xff] = true;
+            }
+        }
+        this.pattern = patterns[0].clone();
+        // where one of many separators is found may depend on where the
+        // search started, as for a self-overlapping one
+        selfOverlapping = patterns.length > 1 || KMPMatcher.hasBorder(pattern);
+    }
+
+    /**
+     * Finds the first occurrence of the separator that lies entirely within
+     * the [from, to) range of the text.
+     *
+     * @return the index of the first byte of the occurrence or FAILURE
+     */
+    public abstract int indexOf(byte[] text, int from, int to);
+
+    /**
+     * Returns the number of bytes taken by the separator found by the last
+     * successful call to indexOf (which varies if there are alternatives).
+     */
+    public int getMatchLength() {
+        return pattern.length;
+    }
+
+    /**
+     * Returns the length of the longest separator this matcher can find.
+     */
+    public int getMaxLength() {
+        return pattern.length;
+    }
+
+    /**
+     * Checks if the byte may be a part of a separator. A byte that may not
+     * separates the text into parts which can be searched independently.
+     */
+    public boolean isSeparatorByte(byte b) {
+        return patternBytes[b & 0xff];
+    }
+
+    /**
+     * Checks if occurrences of the separator may overlap (e.g. "##" in "###").
+     * If so, where the separators are depends on where the search started.
+     */
+    public boolean isSelfOverlapping() {
+        return selfOverlapping;
+    }
+
+    public byte[] getPattern() {
+        return pattern.clone();
+    }
+
+    /**
+     * Compiles the separator: single bytes are searched with a tight loop, two
+     * bytes with a rolling 16-bit word compare and longer separators with the
+     * Boyer-Moore-Horspool algorithm.
+     */
+    public static SeparatorMatcher compile(byte[] separator) {
+        switch (separator.length) {
+            case 1:
+                return new SingleByteMatcher(separator);
+            case 2:
+                return new TwoByteMatcher(separator);
+            default:
+                return new HorspoolMatcher(separator);
+        }
+    }
+
+    /**
+     * Compiles alternative separators, which are searched for at once with
+     * the Aho-Corasick algorithm. A single separator is compiled as above.
+     */
+    public static SeparatorMatcher compile(byte[][] separators) {
+        if (separators.length == 1) {
+            return compile(separators[0]);
+        }
+        return new AhoCorasickMatcher(separators);
+    }
+
+    /**
+     * Splits a comma separated list of alternative separators. A comma or a
+     * backslash which is a part of a separator is escaped with a backslash.
+     */
+    public static byte[][] parseAlternatives(String list) {
+        List<byte[]> separators = new ArrayList<byte[]>();
+        StringBuilder separator = new StringBuilder();
+        for (int i = 0; i < list.length(); i++) {
+            char c = list.charAt(i);
+            if (c == '\\' && i + 1 < list.length() && (list.charAt(i + 1) == ',' || list.charAt(i + 1) == '\\')) {
+                separator.append(list.charAt(++i));
+            } else if (c == ',') {
+                separators.add(Bytes.toBytes(separator.toString()));
+                separator.setLength(0);
+            } else {
+                separator.append(c);
+            }
+        }
+        separators.add(Bytes.toBytes(separator.toString()));
+        return separators.toArray(new byte[separators.size()][]);
+    }
+}
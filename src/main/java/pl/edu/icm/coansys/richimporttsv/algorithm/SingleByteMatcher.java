@@ -0,0 +1,27 @@
+package pl.edu.icm.coansys.richimporttsv.algorithm;
+
+/**
+ * Searches for a one byte separator.
+ */
+public class SingleByteMatcher extends SeparatorMatcher {
+
+    private final byte separator;
+
+    public SingleByteMatcher(byte[] pattern) {
+        super(pattern);
+        if (pattern.length != 1) {
+            throw new IllegalArgumentException("Separator must be a single byte");
+        }
+        separator = pattern[0];
+    }
+
+    @Override
+    public int indexOf(byte[] text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text[i] == separator) {
+                return i;
+            }
+        }
+        return FAILURE;
+    }
+}
@@ -0,0 +1,94 @@
+package pl.edu.icm.coansys.richimporttsv.algorithm;
+
+import java.util.Arrays;
+
+/**
+ * Maps tags (byte strings) to their indexes with a perfect hash: the seed and
+ * the size of the table are chosen when the table is built, so that no two
+ * tags fall into the same slot. A lookup hashes the bytes once and compares
+ * them with the single candidate tag, so unknown tags are rejected at the
+ * same cost as known ones are found.
+ */
+public class TagDispatchTable {
+
+    public static final int NOT_FOUND = -1;
+    private static final int SEEDS_PER_SIZE = 32;
+    private static final int MAX_SIZE = 1 << 24;
+    private byte[][] slotTags;
+    private int[] slotIndexes;
+    private int mask;
+    private int seed;
+
+    /**
+     * @param tags distinct tags; a null tag is skipped
+     */
+    public TagDispatchTable(byte[][] tags) {
+        for (int i = 0; i < tags.length; i++) {
+            for (int j = 0; j < i; j++) {
+                if (tags[i] != null && tags[j] != null && Arrays.equals(tags[i], tags[j])) {
+                    throw new IllegalArgumentException("Duplicated tag: " + new String(tags[i]));
+                }
+            }
+        }
+
+        int size = 2;
+        while (size < 2 * tags.length) {
+            size <<= 1;
+        }
+        for (; size <= MAX_SIZE; size <<= 1) {
+            for (int candidate = 0; candidate < SEEDS_PER_SIZE; candidate++) {
+                if (build(tags, size, candidate)) {
+                    return;
+                }
+            }
+        }
+        throw new IllegalStateException("No perfect hash found for " + tags.length + " tags");
+    }
+
+    private boolean build(byte[][] tags, int size, int candidate) {
+        byte[][] candidateTags = new byte[size][];
+        int[] candidateIndexes = new int[size];
+        for (int i = 0; i < tags.length; i++) {
+            if (tags[i] == null) {
+                continue;
+            }
+            int slot = hash(tags[i], 0, tags[i].length, candidate) & (size - 1);
+            if (candidateTags[slot] != null) {
+                return false;
+            }
+            candidateTags[slot] = tags[i];
+            candidateIndexes[slot] = i;
+        }
+        slotTags = candidateTags;
+        slotIndexes = candidateIndexes;
+        mask = size - 1;
+        seed = candidate;
+        return true;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length, int seed) {
+        int h = (seed + 1) * 0x9E3779B9 ^ length;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ (bytes[i] & 0xff)) * 0x01000193;
+        }
+        return h ^ (h >>> 15);
+    }
+
+    /**
+     * Returns the index of the tag stored in the [offset, offset + length)
+     * range of the bytes, or NOT_FOUND.
+     */
+    public int get(byte[] bytes, int offset, int length) {
+        int slot = hash(bytes, offset, length, seed) & mask;
+        byte[] tag = slotTags[slot];
+        if (tag == null || tag.length != length) {
+            return NOT_FOUND;
+        }
+        for (int i = 0; i < length; i++) {
+            if (tag[i] != bytes[offset + i]) {
+                return NOT_FOUND;
+            }
+        }
+        return slotIndexes[slot];
+    }
+}
@@ -0,0 +1,33 @@
+package pl.edu.icm.coansys.richimporttsv.algorithm;
+
+/**
+ * Searches for a two byte separator by comparing a rolling 16-bit word made
+ * of the last two bytes of the text, so that each byte is compared only once.
+ */
+public class TwoByteMatcher extends SeparatorMatcher {
+
+    private final int separatorWord;
+
+    public TwoByteMatcher(byte[] pattern) {
+        super(pattern);
+        if (pattern.length != 2) {
+            throw new IllegalArgumentException("Separator must be two bytes long");
+        }
+        separatorWord = ((pattern[0] & 0xff) << 8) | (pattern[1] & 0xff);
+    }
+
+    @Override
+    public int indexOf(byte[] text, int from, int to) {
+        if (to - from < 2) {
+            return FAILURE;
+        }
+        int word = text[from] & 0xff;
+        for (int i = from + 1; i < to; i++) {
+            word = ((word << 8) | (text[i] & 0xff)) & 0xffff;
+            if (word == separatorWord) {
+                return i - 1;
+            }
+        }
+        return FAILURE;
+    }
+}
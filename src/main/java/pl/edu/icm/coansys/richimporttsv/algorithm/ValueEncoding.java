@@ -0,0 +1,354 @@
+package pl.edu.icm.coansys.richimporttsv.algorithm;
+
+import java.nio.charset.Charset;
+
+/**
+ * Converts the text of a value into the binary encoding of Bytes.toBytes
+ * for its type, e.g. "4781981" into the 4 bytes of an int. The text is read
+ * directly from the record and the result written into a buffer given by
+ * the caller, so no objects are allocated (except for float and double
+ * values, parsed as Strings). An encoding keeps the state of the last
+ * conversion, so it must not be shared between threads. Use
+ * {@link #compile(String)} to get an encoding by its name.
+ */
+public abstract class ValueEncoding {
+
+    public static final String INT = "int";
+    public static final String LONG = "long";
+    public static final String SHORT = "short";
+    public static final String FLOAT = "float";
+    public static final String DOUBLE = "double";
+    public static final String BOOLEAN = "boolean";
+    public static final String ISO8601_LONG = "iso8601->long";
+    /**
+     * Returned by encode if the text is not a value of the type
+     */
+    public static final int FAILURE = -1;
+    /**
+     * Size of the buffer which fits any encoded value
+     */
+    public static final int MAX_LENGTH = 8;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int MILLIS_PER_MINUTE = 60 * 1000;
+    private static final long MILLIS_PER_DAY = 24L * 60 * MILLIS_PER_MINUTE;
+    private final String name;
+    // the number parsed by the last call of parseInteger
+    private long parsed;
+
+    protected ValueEncoding(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Encodes the value stored in the [offset, offset + length) range of the
+     * bytes into the beginning of the buffer, of at least MAX_LENGTH bytes.
+     *
+     * @return the length of the encoded value or FAILURE
+     */
+    public abstract int encode(byte[] bytes, int offset, int length, byte[] buffer);
+
+    /**
+     * Returns whether there is an encoding of the given name.
+     */
+    public static boolean isEncoding(String name) {
+        return INT.equals(name) || LONG.equals(name) || SHORT.equals(name) || FLOAT.equals(name)
+                || DOUBLE.equals(name) || BOOLEAN.equals(name) || ISO8601_LONG.equals(name);
+    }
+
+    /**
+     * Compiles the named encoding: "int", "long", "short", "float" and
+     * "double" parse decimal numbers, "boolean" parses true, false, 1 and 0
+     * and "iso8601->long" parses an ISO 8601 date and time (UTC unless a zone
+     * is given) into milliseconds since the epoch.
+     */
+    public static ValueEncoding compile(String name) {
+        if (INT.equals(name)) {
+            return new IntegerEncoding(name, Integer.MIN_VALUE, Integer.MAX_VALUE, 4);
+        } else if (LONG.equals(name)) {
+            return new IntegerEncoding(name, Long.MIN_VALUE, Long.MAX_VALUE, 8);
+        } else if (SHORT.equals(name)) {
+            return new IntegerEncoding(name, Short.MIN_VALUE, Short.MAX_VALUE, 2);
+        } else if (FLOAT.equals(name) || DOUBLE.equals(name)) {
+            return new FloatingPointEncoding(name);
+        } else if (BOOLEAN.equals(name)) {
+            return new BooleanEncoding();
+        } else if (ISO8601_LONG.equals(name)) {
+            return new Iso8601Encoding();
+        }
+        throw new IllegalArgumentException("Unknown value type: " + name);
+    }
+
+    /**
+     * Writes the value as a big-endian number of the given width.
+     */
+    protected static int putNumber(byte[] buffer, long value, int width) {
+        for (int i = width - 1; i >= 0; i--) {
+            buffer[i] = (byte) value;
+            value >>>= 8;
+        }
+        return width;
+    }
+
+    /**
+     * Parses an optionally signed decimal number within the given range,
+     * available from getParsed() if true is returned. The number is
+     * accumulated as a negative one, so that the minimum of the range can be
+     * parsed too.
+     */
+    protected boolean parseInteger(byte[] bytes, int offset, int length, long min, long max) {
+        int end = offset + length;
+        int i = offset;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            return false;
+        }
+        long limit = negative ? min : -max;
+        long limitBeforeDigit = limit / 10;
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || result < limitBeforeDigit) {
+                return false;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return false;
+            }
+            result -= digit;
+        }
+        parsed = negative ? result : -result;
+        return true;
+    }
+
+    protected long getParsed() {
+        return parsed;
+    }
+
+    static class IntegerEncoding extends ValueEncoding {
+
+        private final long min;
+        private final long max;
+        private final int width;
+
+        IntegerEncoding(String name, long min, long max, int width) {
+            super(name);
+            this.min = min;
+            this.max = max;
+            this.width = width;
+        }
+
+        @Override
+        public int encode(byte[] bytes, int offset, int length, byte[] buffer) {
+            if (!parseInteger(bytes, offset, length, min, max)) {
+                return FAILURE;
+            }
+            return putNumber(buffer, getParsed(), width);
+        }
+    }
+
+    static class FloatingPointEncoding extends ValueEncoding {
+
+        private final boolean isDouble;
+
+        FloatingPointEncoding(String name) {
+            super(name);
+            isDouble = DOUBLE.equals(name);
+        }
+
+        @Override
+        public int encode(byte[] bytes, int offset, int length, byte[] buffer) {
+            String text = new String(bytes, offset, length, ASCII);
+            try {
+                if (isDouble) {
+                    return putNumber(buffer, Double.doubleToRawLongBits(Double.parseDouble(text)), 8);
+                }
+                return putNumber(buffer, Float.floatToRawIntBits(Float.parseFloat(text)), 4);
+            } catch (NumberFormatException e) {
+                return FAILURE;
+            }
+        }
+    }
+
+    static class BooleanEncoding extends ValueEncoding {
+
+        BooleanEncoding() {
+            super(BOOLEAN);
+        }
+
+        @Override
+        public int encode(byte[] bytes, int offset, int length, byte[] buffer) {
+            if (matches(bytes, offset, length, "true") || matches(bytes, offset, length, "1")) {
+                buffer[0] = (byte) -1;
+            } else if (matches(bytes, offset, length, "false") || matches(bytes, offset, length, "0")) {
+                buffer[0] = 0;
+            } else {
+                return FAILURE;
+            }
+            return 1;
+        }
+
+        // compares ignoring the case of ASCII letters, the word being lower case ASCII
+        private static boolean matches(byte[] bytes, int offset, int length, String word) {
+            if (length != word.length()) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                int b = bytes[offset + i];
+                if (b >= 'A' && b <= 'Z') {
+                    b |= 0x20;
+                }
+                if (b != word.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Parses yyyy-MM-dd, optionally followed by T (or a space) and HH:mm,
+     * HH:mm:ss or HH:mm:ss.SSS (of the fraction, milliseconds are kept) and
+     * a zone: Z, +HH, +HH:mm or +HHmm (or -).
+     */
+    static class Iso8601Encoding extends ValueEncoding {
+
+        private static final int[] DAYS_IN_MONTH = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+        Iso8601Encoding() {
+            super(ISO8601_LONG);
+        }
+
+        @Override
+        public int encode(byte[] bytes, int offset, int length, byte[] buffer) {
+            int end = offset + length;
+            if (length < 10 || bytes[offset + 4] != '-' || bytes[offset + 7] != '-') {
+                return FAILURE;
+            }
+            int year = digits(bytes, offset, 4);
+            int month = digits(bytes, offset + 5, 2);
+            int day = digits(bytes, offset + 8, 2);
+            if (year < 0 || month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month - 1]
+                    || (month == 2 && day == 29 && !isLeapYear(year))) {
+                return FAILURE;
+            }
+            long millis = daysFromEpoch(year, month, day) * MILLIS_PER_DAY;
+
+            int i = offset + 10;
+            if (i < end && (bytes[i] == 'T' || bytes[i] == ' ')) {
+                if (end - i < 6 || bytes[i + 3] != ':') {
+                    return FAILURE;
+                }
+                int hour = digits(bytes, i + 1, 2);
+                int minute = digits(bytes, i + 4, 2);
+                if (hour < 0 || hour > 23 || minute < 0 || minute > 59) {
+                    return FAILURE;
+                }
+                millis += (hour * 60L + minute) * MILLIS_PER_MINUTE;
+                i += 6;
+                if (i < end && bytes[i] == ':') {
+                    int second = end - i < 3 ? -1 : digits(bytes, i + 1, 2);
+                    if (second < 0 || second > 59) {
+                        return FAILURE;
+                    }
+                    millis += second * 1000L;
+                    i += 3;
+                    if (i < end && (bytes[i] == '.' || bytes[i] == ',')) {
+                        int fractionEnd = i + 1;
+                        while (fractionEnd < end && bytes[fractionEnd] >= '0' && bytes[fractionEnd] <= '9') {
+                            fractionEnd++;
+                        }
+                        if (fractionEnd == i + 1) {
+                            return FAILURE;
+                        }
+                        int scale = 100;
+                        for (int j = i + 1; j < fractionEnd && scale > 0; j++, scale /= 10) {
+                            millis += (bytes[j] - '0') * scale;
+                        }
+                        i = fractionEnd;
+                    }
+                }
+            }
+
+            if (i < end) {
+                int zoneMinutes = parseZone(bytes, i, end);
+                if (zoneMinutes == Integer.MIN_VALUE) {
+                    return FAILURE;
+                }
+                millis -= zoneMinutes * (long) MILLIS_PER_MINUTE;
+            }
+            return putNumber(buffer, millis, 8);
+        }
+
+        /**
+         * Returns the offset of the zone from UTC in minutes, or
+         * Integer.MIN_VALUE if it is not a zone.
+         */
+        private static int parseZone(byte[] bytes, int i, int end) {
+            if (bytes[i] == 'Z') {
+                return i + 1 == end ? 0 : Integer.MIN_VALUE;
+            }
+            if (bytes[i] != '+' && bytes[i] != '-') {
+                return Integer.MIN_VALUE;
+            }
+            int sign = bytes[i] == '-' ? -1 : 1;
+            int length = end - i - 1;
+            int hours = length >= 2 ? digits(bytes, i + 1, 2) : -1;
+            int minutes;
+            if (length == 2) {
+                minutes = 0;
+            } else if (length == 4) {
+                minutes = digits(bytes, i + 3, 2);
+            } else if (length == 5 && bytes[i + 3] == ':') {
+                minutes = digits(bytes, i + 4, 2);
+            } else {
+                return Integer.MIN_VALUE;
+            }
+            if (hours < 0 || hours > 23 || minutes < 0 || minutes > 59) {
+                return Integer.MIN_VALUE;
+            }
+            return sign * (hours * 60 + minutes);
+        }
+
+        /**
+         * Returns the number of the given digits, or -1 if any of them is not
+         * a digit.
+         */
+        private static int digits(byte[] bytes, int offset, int count) {
+            int value = 0;
+            for (int i = offset; i < offset + count; i++) {
+                int digit = bytes[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    return -1;
+                }
+                value = 10 * value + digit;
+            }
+            return value;
+        }
+
+        private static boolean isLeapYear(int year) {
+            return year % 4 == 0 && (year % 100 != 0 || year % 400 == 0);
+        }
+
+        /**
+         * Returns the number of days from 1970-01-01 to the date of the
+         * proleptic Gregorian calendar.
+         */
+        private static long daysFromEpoch(int year, int month, int day) {
+            // years starting in March, so that the leap day is the last one
+            long y = month <= 2 ? year - 1 : year;
+            long era = (y >= 0 ? y : y - 399) / 400;
+            long yearOfEra = y - era * 400;
+            long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+            long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+            return era * 146097 + dayOfEra - 719468;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package pl.edu.icm.coansys.richimporttsv.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+
+/**
+ * Buffers Puts per region server and sends each full buffer from a small
+ * thread pool, so that the thread producing the Puts does not wait for the
+ * RPCs (unless all the threads are busy and the queue of buffers is full).
+ * At most one buffer per region server is being sent at a time, the next
+ * ones waiting for it, so that the Puts of a row are applied in the order
+ * they were given, as with TableOutputFormat. Errors of the background
+ * flushes are thrown by the subsequent calls.
+ */
+public class AsyncPutWriter implements Closeable {
+
+    private final HTable locator;
+    private final BlockingQueue<HTable> tables;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final long writeBufferSize;
+    private final boolean skipWal;
+    // buffered Puts and their heap size, per region server
+    private final Map<String, List<Put>> buffers = new HashMap<String, List<Put>>();
+    private final Map<String, Long> bufferSizes = new HashMap<String, Long>();
+    // buffers waiting for the one being sent to the same region server, per
+    // server with a buffer being sent
+    private final Map<String, LinkedList<List<Put>>> waiting = new HashMap<String, LinkedList<List<Put>>>();
+    private final AtomicReference<IOException> error = new AtomicReference<IOException>();
+    // statistics of the finished flushes
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushedPuts = new AtomicLong();
+    private final AtomicLong flushMillis = new AtomicLong();
+    private final AtomicLong maxFlushMillis = new AtomicLong();
+
+    public AsyncPutWriter(Configuration conf, String tableName, long writeBufferSize, boolean skipWal, int threads) throws IOException {
+        this.writeBufferSize = writeBufferSize;
+        this.skipWal = skipWal;
+        locator = new HTable(conf, tableName);
+        tables = new ArrayBlockingQueue<HTable>(threads);
+        for (int i = 0; i < threads; i++) {
+            HTable table = new HTable(conf, tableName);
+            table.setAutoFlush(false);
+            table.setWriteBufferSize(writeBufferSize);
+            tables.add(table);
+        }
+        executor = Executors.newFixedThreadPool(threads);
+        // one buffer being filled per thread while the threads send others
+        maxInFlight = 2 * threads;
+        inFlight = new Semaphore(maxInFlight);
+    }
+
+    public void put(Put put) throws IOException, InterruptedException {
+        checkError();
+        if (skipWal) {
+            put.setWriteToWAL(false);
+        }
+
+        String server = locator.getRegionLocation(put.getRow()).getHostnamePort();
+        List<Put> buffer = buffers.get(server);
+        long size = 0;
+        if (buffer == null) {
+            buffer = new ArrayList<Put>();
+            buffers.put(server, buffer);
+        } else {
+            size = bufferSizes.get(server);
+        }
+        buffer.add(put);
+        size += put.heapSize();
+
+        if (size >= writeBufferSize) {
+            buffers.remove(server);
+            bufferSizes.remove(server);
+            submit(server, buffer);
+        } else {
+            bufferSizes.put(server, size);
+        }
+    }
+
+    private void submit(String server, List<Put> batch) throws InterruptedException {
+        inFlight.acquire();
+        synchronized (waiting) {
+            LinkedList<List<Put>> queue = waiting.get(server);
+            if (queue != null) {
+                // sent once the buffers submitted before are
+                queue.add(batch);
+                return;
+            }
+            waiting.put(server, new LinkedList<List<Put>>());
+        }
+        execute(server, batch);
+    }
+
+    private void execute(final String server, final List<Put> batch) {
+        executor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    send(batch);
+                } catch (IOException e) {
+                    error.compareAndSet(null, e);
+                } catch (InterruptedException e) {
+                    error.compareAndSet(null, new IOException(e));
+                } finally {
+                    inFlight.release();
+                    sendNext(server);
+                }
+            }
+        });
+    }
+
+    private void sendNext(String server) {
+        List<Put> next;
+        synchronized (waiting) {
+            next = waiting.get(server).poll();
+            if (next == null) {
+                waiting.remove(server);
+            }
+        }
+        if (next != null) {
+            execute(server, next);
+        }
+    }
+
+    private void send(List<Put> batch) throws IOException, InterruptedException {
+        HTable table = tables.take();
+        long start = System.currentTimeMillis();
+        try {
+            table.put(batch);
+            table.flushCommits();
+        } finally {
+            tables.add(table);
+        }
+
+        long millis = System.currentTimeMillis() - start;
+        flushes.incrementAndGet();
+        flushedPuts.addAndGet(batch.size());
+        flushMillis.addAndGet(millis);
+        long max = maxFlushMillis.get();
+        while (millis > max && !maxFlushMillis.compareAndSet(max, millis)) {
+            max = maxFlushMillis.get();
+        }
+    }
+
+    /**
+     * Sends all the buffered Puts and waits until they are written.
+     */
+    public void flush() throws IOException, InterruptedException {
+        for (Map.Entry<String, List<Put>> buffer : buffers.entrySet()) {
+            submit(buffer.getKey(), buffer.getValue());
+        }
+        buffers.clear();
+        bufferSizes.clear();
+        inFlight.acquire(maxInFlight);
+        inFlight.release(maxInFlight);
+        checkError();
+    }
+
+    private void checkError() throws IOException {
+        IOException e = error.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } finally {
+            executor.shutdown();
+            locator.close();
+            for (HTable table : tables) {
+                table.close();
+            }
+        }
+    }
+
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    public long getFlushedPuts() {
+        return flushedPuts.get();
+    }
+
+    public long getFlushMillis() {
+        return flushMillis.get();
+    }
+
+    public long getMaxFlushMillis() {
+        return maxFlushMillis.get();
+    }
+}
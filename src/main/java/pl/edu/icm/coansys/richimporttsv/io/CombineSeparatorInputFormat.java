@@ -0,0 +1,91 @@
+package pl.edu.icm.coansys.richimporttsv.io;
+
+import java.io.IOException;
+import java.util.List;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/**
+ * Packs many files (or blocks of files) into each split, preferring the ones
+ * stored on the same node, then on the same rack, so that a mapper is not
+ * started for each small file. Each file is read with SeparatorRecordReader,
+ * so keys are offsets within the file being read.
+ */
+public class CombineSeparatorInputFormat extends CombineFileInputFormat<LongWritable, Text> {
+
+    final public static String MAX_SPLIT_SIZE_CONF_KEY = "record.combine.max.split.size";
+    final static long DEFAULT_MAX_SPLIT_SIZE = 256 * 1024 * 1024;
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        setMaxSplitSize(job.getConfiguration().getLong(MAX_SPLIT_SIZE_CONF_KEY, DEFAULT_MAX_SPLIT_SIZE));
+        return super.getSplits(job);
+    }
+
+    @Override
+    public RecordReader<LongWritable, Text> createRecordReader(InputSplit inputSplit, TaskAttemptContext taskAttemptContext) throws IOException {
+        return new CombineFileRecordReader<LongWritable, Text>((CombineFileSplit) inputSplit, taskAttemptContext, FileRecordReader.class);
+    }
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        CompressionCodec codec = new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+        return codec == null || codec instanceof SplittableCompressionCodec;
+    }
+
+    /**
+     * Reads the part of a CombineFileSplit that comes from a single file.
+     */
+    public static class FileRecordReader extends RecordReader<LongWritable, Text> {
+
+        private final SeparatorRecordReader reader = new SeparatorRecordReader();
+        private final FileSplit fileSplit;
+
+        public FileRecordReader(CombineFileSplit split, TaskAttemptContext taskAttemptContext, Integer index) {
+            fileSplit = new FileSplit(split.getPath(index), split.getOffset(index), split.getLength(index), split.getLocations());
+        }
+
+        @Override
+        public void initialize(InputSplit inputSplit, TaskAttemptContext taskAttemptContext) throws IOException, InterruptedException {
+            // the whole CombineFileSplit is passed here, so use our part of it
+            reader.initialize(fileSplit, taskAttemptContext);
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            return reader.nextKeyValue();
+        }
+
+        @Override
+        public LongWritable getCurrentKey() {
+            return reader.getCurrentKey();
+        }
+
+        @Override
+        public Text getCurrentValue() {
+            return reader.getCurrentValue();
+        }
+
+        @Override
+        public float getProgress() throws IOException, InterruptedException {
+            return reader.getProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
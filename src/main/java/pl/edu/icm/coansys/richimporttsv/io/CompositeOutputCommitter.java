@@ -0,0 +1,74 @@
+package pl.edu.icm.coansys.richimporttsv.io;
+
+import java.io.IOException;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobStatus;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Commits the outputs of many committers together, each task committing
+ * only the outputs it has written.
+ */
+class CompositeOutputCommitter extends OutputCommitter {
+
+    private final OutputCommitter[] committers;
+
+    CompositeOutputCommitter(OutputCommitter... committers) {
+        this.committers = committers;
+    }
+
+    @Override
+    public void setupJob(JobContext context) throws IOException {
+        for (OutputCommitter committer : committers) {
+            committer.setupJob(context);
+        }
+    }
+
+    @Override
+    public void commitJob(JobContext context) throws IOException {
+        for (OutputCommitter committer : committers) {
+            committer.commitJob(context);
+        }
+    }
+
+    @Override
+    public void abortJob(JobContext context, JobStatus.State state) throws IOException {
+        for (OutputCommitter committer : committers) {
+            committer.abortJob(context, state);
+        }
+    }
+
+    @Override
+    public void setupTask(TaskAttemptContext context) throws IOException {
+        for (OutputCommitter committer : committers) {
+            committer.setupTask(context);
+        }
+    }
+
+    @Override
+    public boolean needsTaskCommit(TaskAttemptContext context) throws IOException {
+        for (OutputCommitter committer : committers) {
+            if (committer.needsTaskCommit(context)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void commitTask(TaskAttemptContext context) throws IOException {
+        for (OutputCommitter committer : committers) {
+            if (committer.needsTaskCommit(context)) {
+                committer.commitTask(context);
+            }
+        }
+    }
+
+    @Override
+    public void abortTask(TaskAttemptContext context) throws IOException {
+        for (OutputCommitter committer : committers) {
+            committer.abortTask(context);
+        }
+    }
+}
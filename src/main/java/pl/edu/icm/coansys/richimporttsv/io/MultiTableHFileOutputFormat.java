@@ -0,0 +1,110 @@
+package pl.edu.icm.coansys.richimporttsv.io;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.HFileOutputFormat;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * Writes the KeyValues of many tables, each keyed by the name of its table,
+ * as HFileOutputFormat does, into a subdirectory of the output directory
+ * named after the table, so that each subdirectory can be bulk loaded into
+ * its table. The subdirectories are committed independently, by a
+ * FileOutputCommitter each.
+ */
+public class MultiTableHFileOutputFormat extends OutputFormat<ImmutableBytesWritable, KeyValue> {
+
+    final public static String TABLES_CONF_KEY = "hfile.tables";
+    // the key FileOutputFormat reads the output directory from
+    private static final String OUTPUT_DIR_CONF_KEY = "mapred.output.dir";
+
+    public static void setTables(Configuration conf, String[] tableNames) {
+        conf.setStrings(TABLES_CONF_KEY, tableNames);
+    }
+
+    public static String[] getTables(Configuration conf) {
+        return conf.getStrings(TABLES_CONF_KEY, new String[0]);
+    }
+
+    @Override
+    public RecordWriter<ImmutableBytesWritable, KeyValue> getRecordWriter(TaskAttemptContext context) throws IOException, InterruptedException {
+        return new TableRecordWriter(context);
+    }
+
+    @Override
+    public void checkOutputSpecs(JobContext context) throws IOException, InterruptedException {
+        Path outputDir = FileOutputFormat.getOutputPath(context);
+        if (outputDir == null) {
+            throw new IOException("Output directory not set");
+        }
+        if (outputDir.getFileSystem(context.getConfiguration()).exists(outputDir)) {
+            throw new IOException("Output directory " + outputDir + " already exists");
+        }
+    }
+
+    @Override
+    public OutputCommitter getOutputCommitter(TaskAttemptContext context) throws IOException, InterruptedException {
+        Path outputDir = FileOutputFormat.getOutputPath(context);
+        String[] tables = getTables(context.getConfiguration());
+        OutputCommitter[] committers = new OutputCommitter[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            committers[i] = new FileOutputCommitter(new Path(outputDir, tables[i]), context);
+        }
+        return new CompositeOutputCommitter(committers);
+    }
+
+    private static class TableRecordWriter extends RecordWriter<ImmutableBytesWritable, KeyValue> {
+
+        private final TaskAttemptContext context;
+        // writers of the tables written so far, usually a single one as the
+        // reducers of TableRegionPartitioner get the KeyValues of one table
+        private final Map<ImmutableBytesWritable, RecordWriter<ImmutableBytesWritable, KeyValue>> writers =
+                new HashMap<ImmutableBytesWritable, RecordWriter<ImmutableBytesWritable, KeyValue>>();
+        private final ImmutableBytesWritable row = new ImmutableBytesWritable();
+
+        TableRecordWriter(TaskAttemptContext context) {
+            this.context = context;
+        }
+
+        @Override
+        public void write(ImmutableBytesWritable table, KeyValue kv) throws IOException, InterruptedException {
+            RecordWriter<ImmutableBytesWritable, KeyValue> writer = writers.get(table);
+            if (writer == null) {
+                writer = getTableWriter(Bytes.toString(table.get(), table.getOffset(), table.getLength()));
+                writers.put(new ImmutableBytesWritable(table.copyBytes()), writer);
+            }
+            row.set(kv.getBuffer(), kv.getRowOffset(), kv.getRowLength());
+            writer.write(row, kv);
+        }
+
+        /**
+         * Opens a writer of HFileOutputFormat over a copy of the task
+         * configuration, whose output directory is the one of the table,
+         * so that the configuration shared with the task stays untouched.
+         */
+        private RecordWriter<ImmutableBytesWritable, KeyValue> getTableWriter(String table) throws IOException, InterruptedException {
+            Configuration conf = new Configuration(context.getConfiguration());
+            conf.set(OUTPUT_DIR_CONF_KEY, new Path(FileOutputFormat.getOutputPath(context), table).toString());
+            return new HFileOutputFormat().getRecordWriter(new TaskAttemptContext(conf, context.getTaskAttemptID()));
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException, InterruptedException {
+            for (RecordWriter<ImmutableBytesWritable, KeyValue> writer : writers.values()) {
+                writer.close(context);
+            }
+        }
+    }
+}
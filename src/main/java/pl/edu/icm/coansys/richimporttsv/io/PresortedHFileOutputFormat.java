@@ -0,0 +1,98 @@
+package pl.edu.icm.coansys.richimporttsv.io;
+
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.mapreduce.HFileOutputFormat;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Writes HFiles directly from the mappers, when the KeyValues are emitted in
+ * sorted order (e.g. the input is sorted by row key), so that no shuffle is
+ * needed. A new set of HFiles is started at each region boundary (see
+ * RegionStartKeys), so that the files do not have to be split when they are
+ * bulk loaded.
+ */
+public class PresortedHFileOutputFormat extends HFileOutputFormat {
+
+    final public static String CHECK_ORDER_CONF_KEY = "hfile.presorted.check.order";
+
+    @Override
+    public RecordWriter<ImmutableBytesWritable, KeyValue> getRecordWriter(TaskAttemptContext context) throws IOException, InterruptedException {
+        Configuration conf = context.getConfiguration();
+        return new RegionRecordWriter(context, RegionStartKeys.get(conf), conf.getBoolean(CHECK_ORDER_CONF_KEY, true));
+    }
+
+    private RecordWriter<ImmutableBytesWritable, KeyValue> getRegionWriter(TaskAttemptContext context) throws IOException, InterruptedException {
+        return super.getRecordWriter(context);
+    }
+
+    private class RegionRecordWriter extends RecordWriter<ImmutableBytesWritable, KeyValue> {
+
+        private final TaskAttemptContext context;
+        private final byte[][] startKeys;
+        private final boolean checkOrder;
+        // writer of the HFiles of the current region, opened lazily
+        private RecordWriter<ImmutableBytesWritable, KeyValue> writer;
+        // index of the first region start key greater than the current row
+        private int nextRegion = 0;
+        // key of the last written KeyValue, copied since the mapper reuses
+        // the buffers the KeyValues are backed by
+        private byte[] lastKey = new byte[64];
+        private int lastKeyLength = -1;
+
+        RegionRecordWriter(TaskAttemptContext context, byte[][] startKeys, boolean checkOrder) {
+            this.context = context;
+            this.startKeys = startKeys;
+            this.checkOrder = checkOrder;
+        }
+
+        @Override
+        public void write(ImmutableBytesWritable row, KeyValue kv) throws IOException, InterruptedException {
+            if (checkOrder) {
+                checkOrder(kv);
+            }
+
+            boolean regionChanged = false;
+            while (nextRegion < startKeys.length && Bytes.compareTo(
+                    kv.getBuffer(), kv.getRowOffset(), kv.getRowLength(),
+                    startKeys[nextRegion], 0, startKeys[nextRegion].length) >= 0) {
+                nextRegion++;
+                regionChanged = true;
+            }
+            if (regionChanged && writer != null) {
+                writer.close(context);
+                writer = null;
+            }
+            if (writer == null) {
+                writer = getRegionWriter(context);
+            }
+            writer.write(row, kv);
+        }
+
+        private void checkOrder(KeyValue kv) throws IOException {
+            if (lastKeyLength != -1 && KeyValue.KEY_COMPARATOR.compare(
+                    lastKey, 0, lastKeyLength,
+                    kv.getBuffer(), kv.getKeyOffset(), kv.getKeyLength()) > 0) {
+                throw new IOException("Input is not sorted: " + kv
+                        + " follows " + Bytes.toStringBinary(lastKey, 0, lastKeyLength));
+            }
+            if (lastKey.length < kv.getKeyLength()) {
+                lastKey = new byte[Math.max(kv.getKeyLength(), 2 * lastKey.length)];
+            }
+            System.arraycopy(kv.getBuffer(), kv.getKeyOffset(), lastKey, 0, kv.getKeyLength());
+            lastKeyLength = kv.getKeyLength();
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException, InterruptedException {
+            if (writer != null) {
+                writer.close(context);
+                writer = null;
+            }
+        }
+    }
+}
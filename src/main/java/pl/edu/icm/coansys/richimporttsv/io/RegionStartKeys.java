@@ -0,0 +1,79 @@
+package pl.edu.icm.coansys.richimporttsv.io;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Base64;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Passes the start keys of the regions of the target table to the tasks in
+ * the job configuration.
+ */
+public class RegionStartKeys {
+
+    final public static String CONF_KEY = "hfile.region.start.keys";
+
+    // Configuration.getStrings skips empty strings, while the start key of
+    // the first region is empty, so the keys are joined explicitly
+    private static final String KEY_SEPARATOR = ",";
+
+    public static void set(Configuration conf, byte[][] startKeys) {
+        write(conf, CONF_KEY, startKeys);
+    }
+
+    private static void write(Configuration conf, String key, byte[][] startKeys) {
+        StringBuilder encoded = new StringBuilder();
+        for (int i = 0; i < startKeys.length; i++) {
+            if (i > 0) {
+                encoded.append(KEY_SEPARATOR);
+            }
+            encoded.append(Base64.encodeBytes(startKeys[i], Base64.DONT_BREAK_LINES));
+        }
+        conf.set(key, encoded.toString());
+    }
+
+    public static byte[][] get(Configuration conf) {
+        return read(conf, CONF_KEY);
+    }
+
+    /**
+     * Sets the start keys of one of many tables written by a job.
+     */
+    public static void set(Configuration conf, String tableName, byte[][] startKeys) {
+        write(conf, CONF_KEY + "." + tableName, startKeys);
+    }
+
+    public static byte[][] get(Configuration conf, String tableName) {
+        return read(conf, CONF_KEY + "." + tableName);
+    }
+
+    private static byte[][] read(Configuration conf, String key) {
+        String value = conf.get(key);
+        if (value == null) {
+            return new byte[0][];
+        }
+        String[] encoded = value.split(KEY_SEPARATOR, -1);
+        byte[][] startKeys = new byte[encoded.length][];
+        for (int i = 0; i < encoded.length; i++) {
+            startKeys[i] = Base64.decode(encoded[i]);
+        }
+        return startKeys;
+    }
+
+    /**
+     * Returns the index of the region the row belongs to, i.e. of the last
+     * start key which is not greater than the row.
+     */
+    public static int getRegion(byte[][] startKeys, byte[] row, int offset, int length) {
+        int low = 0;
+        int high = startKeys.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (Bytes.compareTo(startKeys[middle], 0, startKeys[middle].length, row, offset, length) <= 0) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,56 @@
+package pl.edu.icm.coansys.richimporttsv.io;
+
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Wraps the output format of a job writing rejects through RejectOutputFormat
+ * (as a named output of MultipleOutputs, which only opens record writers),
+ * so that the rejects of a task attempt are committed or aborted together
+ * with its output, by the committer of the job.
+ */
+public class RejectCommittingOutputFormat<K, V> extends OutputFormat<K, V> {
+
+    final public static String OUTPUT_FORMAT_CONF_KEY = "reject.wrapped.output.format.class";
+    private OutputFormat<K, V> outputFormat;
+
+    /**
+     * Wraps the output format set for the job.
+     */
+    public static void wrapOutputFormat(Job job) throws ClassNotFoundException {
+        job.getConfiguration().setClass(OUTPUT_FORMAT_CONF_KEY, job.getOutputFormatClass(), OutputFormat.class);
+        job.setOutputFormatClass(RejectCommittingOutputFormat.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private OutputFormat<K, V> getOutputFormat(JobContext context) {
+        if (outputFormat == null) {
+            Configuration conf = context.getConfiguration();
+            outputFormat = ReflectionUtils.newInstance(conf.getClass(OUTPUT_FORMAT_CONF_KEY, null, OutputFormat.class), conf);
+        }
+        return outputFormat;
+    }
+
+    @Override
+    public RecordWriter<K, V> getRecordWriter(TaskAttemptContext context) throws IOException, InterruptedException {
+        return getOutputFormat(context).getRecordWriter(context);
+    }
+
+    @Override
+    public void checkOutputSpecs(JobContext context) throws IOException, InterruptedException {
+        getOutputFormat(context).checkOutputSpecs(context);
+    }
+
+    @Override
+    public OutputCommitter getOutputCommitter(TaskAttemptContext context) throws IOException, InterruptedException {
+        return new CompositeOutputCommitter(getOutputFormat(context).getOutputCommitter(context),
+                new RejectOutputFormat.RejectOutputCommitter());
+    }
+}
@@ -0,0 +1,174 @@
+package pl.edu.icm.coansys.richimporttsv.io;
+
+import java.io.IOException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobStatus;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+/**
+ * Writes rejected records into a directory of its own, independent of the
+ * output of the job (so it can be used through MultipleOutputs also when the
+ * job writes to an HBase table). Each value is written as is, followed by the
+ * record separator (the first one, if there are alternatives), so that the
+ * file can be read again by SeparatorRecordReader. Each key (a description of
+ * the record) is written as a line of the file of the same name in the _info
+ * subdirectory, which is skipped by FileInputFormat, so that the directory
+ * can be imported again once the records are fixed.
+ *
+ * The files of a task attempt are written under _temporary and moved into
+ * the directory by RejectOutputCommitter when the attempt is committed, as
+ * FileOutputCommitter does, replacing the files of an attempt of the same
+ * task committed before. As MultipleOutputs does not commit its outputs,
+ * the output format of the job is wrapped by RejectCommittingOutputFormat.
+ */
+public class RejectOutputFormat extends OutputFormat<Text, Text> {
+
+    final public static String DIR_CONF_KEY = "reject.output.dir";
+    final public static String INFO_DIR_NAME = "_info";
+    final static String TEMP_DIR_NAME = "_temporary";
+    final static String DEFAULT_NAME = "rejects";
+
+    @Override
+    public RecordWriter<Text, Text> getRecordWriter(TaskAttemptContext context) throws IOException, InterruptedException {
+        Configuration conf = context.getConfiguration();
+        Path dir = getDir(context);
+        // of alternative separators, the first one is written
+        byte[] recordSeparator = SeparatorRecordReader.getRecordSeparators(conf)[0];
+        return new RejectRecordWriter(dir.getFileSystem(conf), getTaskAttemptDir(context), getName(context), recordSeparator);
+    }
+
+    private static Path getDir(JobContext context) {
+        return new Path(context.getConfiguration().get(DIR_CONF_KEY));
+    }
+
+    private static Path getTaskAttemptDir(TaskAttemptContext context) {
+        return new Path(new Path(getDir(context), TEMP_DIR_NAME), context.getTaskAttemptID().toString());
+    }
+
+    // the same for all the attempts of a task
+    private static String getName(TaskAttemptContext context) {
+        return FileOutputFormat.getUniqueFile(context, DEFAULT_NAME, "");
+    }
+
+    @Override
+    public void checkOutputSpecs(JobContext context) throws IOException, InterruptedException {
+        String dir = context.getConfiguration().get(DIR_CONF_KEY);
+        if (dir == null) {
+            throw new IOException("Reject directory not set (" + DIR_CONF_KEY + ")");
+        }
+        Path path = new Path(dir);
+        if (path.getFileSystem(context.getConfiguration()).exists(path)) {
+            throw new IOException("Reject directory " + path + " already exists");
+        }
+    }
+
+    @Override
+    public OutputCommitter getOutputCommitter(TaskAttemptContext context) throws IOException, InterruptedException {
+        return new RejectOutputCommitter();
+    }
+
+    private static class RejectRecordWriter extends RecordWriter<Text, Text> {
+
+        private final byte[] recordSeparator;
+        private final FSDataOutputStream records;
+        private final FSDataOutputStream infos;
+
+        RejectRecordWriter(FileSystem fs, Path tempDir, String name, byte[] recordSeparator) throws IOException {
+            this.recordSeparator = recordSeparator;
+            records = fs.create(new Path(tempDir, name), true);
+            infos = fs.create(new Path(new Path(tempDir, INFO_DIR_NAME), name), true);
+        }
+
+        @Override
+        public void write(Text info, Text record) throws IOException {
+            records.write(record.getBytes(), 0, record.getLength());
+            records.write(recordSeparator);
+            infos.write(info.getBytes(), 0, info.getLength());
+            infos.write('\n');
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) throws IOException {
+            try {
+                records.close();
+            } finally {
+                infos.close();
+            }
+        }
+    }
+
+    /**
+     * Moves the files of a task attempt into the reject directory when the
+     * attempt is committed and deletes them when it is aborted, so that
+     * only the rejects of the successful attempts are published.
+     */
+    public static class RejectOutputCommitter extends OutputCommitter {
+
+        @Override
+        public void setupJob(JobContext context) throws IOException {
+            // the directory is created by the first attempt committed
+        }
+
+        @Override
+        public void commitJob(JobContext context) throws IOException {
+            deleteTempDir(context);
+        }
+
+        @Override
+        public void abortJob(JobContext context, JobStatus.State state) throws IOException {
+            deleteTempDir(context);
+        }
+
+        private void deleteTempDir(JobContext context) throws IOException {
+            Path dir = getDir(context);
+            dir.getFileSystem(context.getConfiguration()).delete(new Path(dir, TEMP_DIR_NAME), true);
+        }
+
+        @Override
+        public void setupTask(TaskAttemptContext context) throws IOException {
+            // the files are created by the writer, if there are rejects
+        }
+
+        @Override
+        public boolean needsTaskCommit(TaskAttemptContext context) throws IOException {
+            Path tempDir = getTaskAttemptDir(context);
+            return tempDir.getFileSystem(context.getConfiguration()).exists(new Path(tempDir, getName(context)));
+        }
+
+        @Override
+        public void commitTask(TaskAttemptContext context) throws IOException {
+            Path dir = getDir(context);
+            Path tempDir = getTaskAttemptDir(context);
+            String name = getName(context);
+            FileSystem fs = dir.getFileSystem(context.getConfiguration());
+            Path infoDir = new Path(dir, INFO_DIR_NAME);
+            fs.mkdirs(infoDir);
+            move(fs, new Path(tempDir, name), new Path(dir, name));
+            move(fs, new Path(new Path(tempDir, INFO_DIR_NAME), name), new Path(infoDir, name));
+            fs.delete(tempDir, true);
+        }
+
+        private static void move(FileSystem fs, Path source, Path target) throws IOException {
+            // written by an attempt of the task committed before
+            fs.delete(target, false);
+            if (!fs.rename(source, target)) {
+                throw new IOException("Can not move " + source + " to " + target);
+            }
+        }
+
+        @Override
+        public void abortTask(TaskAttemptContext context) throws IOException {
+            Path tempDir = getTaskAttemptDir(context);
+            tempDir.getFileSystem(context.getConfiguration()).delete(tempDir, true);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package pl.edu.icm.coansys.richimporttsv.io;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Offsets at which records of a file start, stored in a sidecar file next to
+ * it. The sidecar file name starts with a dot, so it is not taken as input by
+ * FileInputFormat. Only some of the record starts are stored (at most one per
+ * given interval of bytes), which is enough to align splits to records.
+ */
+public class SeparatorIndex {
+
+    final public static String INDEX_SUFFIX = ".sepidx";
+    final static int VERSION = 1;
+    private final byte[] separator;
+    private final long fileLength;
+    private final long[] recordStarts;
+
+    public SeparatorIndex(byte[] separator, long fileLength, long[] recordStarts) {
+        this.separator = separator;
+        this.fileLength = fileLength;
+        this.recordStarts = recordStarts;
+    }
+
+    public static Path getIndexPath(Path file) {
+        return new Path(file.getParent(), "." + file.getName() + INDEX_SUFFIX);
+    }
+
+    public byte[] getSeparator() {
+        return separator;
+    }
+
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    /**
+     * Returns the indexed record starts, in increasing order. The first one is
+     * always 0.
+     */
+    public long[] getRecordStarts() {
+        return recordStarts;
+    }
+
+    public void write(FileSystem fs, Path file) throws IOException {
+        FSDataOutputStream out = fs.create(getIndexPath(file), true);
+        try {
+            WritableUtils.writeVInt(out, VERSION);
+            WritableUtils.writeVInt(out, separator.length);
+            out.write(separator);
+            WritableUtils.writeVLong(out, fileLength);
+            WritableUtils.writeVInt(out, recordStarts.length);
+            long previous = 0;
+            for (long recordStart : recordStarts) {
+                WritableUtils.writeVLong(out, recordStart - previous);
+                previous = recordStart;
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the index of the file, if it exists and is up to date, i.e. it
+     * has been written after the file, for the same length and separator.
+     *
+     * @return the index or null
+     */
+    public static SeparatorIndex read(FileSystem fs, FileStatus file, byte[] separator) throws IOException {
+        Path indexPath = getIndexPath(file.getPath());
+        if (!fs.exists(indexPath) || fs.getFileStatus(indexPath).getModificationTime() < file.getModificationTime()) {
+            return null;
+        }
+
+        FSDataInputStream in = fs.open(indexPath);
+        try {
+            if (WritableUtils.readVInt(in) != VERSION) {
+                return null;
+            }
+            byte[] indexSeparator = new byte[WritableUtils.readVInt(in)];
+            in.readFully(indexSeparator);
+            long fileLength = WritableUtils.readVLong(in);
+            if (!Arrays.equals(indexSeparator, separator) || fileLength != file.getLen()) {
+                return null;
+            }
+            long[] recordStarts = new long[WritableUtils.readVInt(in)];
+            long previous = 0;
+            for (int i = 0; i < recordStarts.length; i++) {
+                recordStarts[i] = previous + WritableUtils.readVLong(in);
+                previous = recordStarts[i];
+            }
+            return new SeparatorIndex(indexSeparator, fileLength, recordStarts);
+        } finally {
+            in.close();
+        }
+    }
+}
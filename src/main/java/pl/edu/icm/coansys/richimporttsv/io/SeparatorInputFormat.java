@@ -5,18 +5,116 @@
 package pl.edu.icm.coansys.richimporttsv.io;
 
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
 import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 
 
 public class SeparatorInputFormat extends TextInputFormat {
 
+    final public static String USE_INDEX_CONF_KEY = "record.index.use";
+
     @Override
     public RecordReader<LongWritable, Text> createRecordReader(InputSplit inputSplit, TaskAttemptContext taskAttemptContext) {
         return new SeparatorRecordReader();
     }
+
+    /**
+     * Compressed files are read as a whole by a single reader, unless their
+     * codec can start decompressing at block boundaries (e.g. bzip2).
+     */
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        CompressionCodec codec = new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+        return codec == null || codec instanceof SplittableCompressionCodec;
+    }
+
+    /**
+     * Splits files that have an up to date SeparatorIndex at record
+     * boundaries, and the remaining files as TextInputFormat does.
+     */
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        List<InputSplit> splits = super.getSplits(job);
+        Configuration conf = job.getConfiguration();
+        if (!conf.getBoolean(USE_INDEX_CONF_KEY, true)) {
+            return splits;
+        }
+
+        byte[] separator = SeparatorRecordReader.getSeparatorKey(conf);
+        CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+        Map<Path, List<InputSplit>> alignedSplits = new HashMap<Path, List<InputSplit>>();
+        for (FileStatus file : listStatus(job)) {
+            if (codecs.getCodec(file.getPath()) != null) {
+                continue;
+            }
+            FileSystem fs = file.getPath().getFileSystem(conf);
+            SeparatorIndex index = SeparatorIndex.read(fs, file, separator);
+            if (index != null) {
+                alignedSplits.put(file.getPath(), getAlignedSplits(job, fs, file, index));
+            }
+        }
+        if (alignedSplits.isEmpty()) {
+            return splits;
+        }
+
+        List<InputSplit> result = new ArrayList<InputSplit>();
+        for (InputSplit split : splits) {
+            if (!alignedSplits.containsKey(((FileSplit) split).getPath())) {
+                result.add(split);
+            }
+        }
+        for (List<InputSplit> fileSplits : alignedSplits.values()) {
+            result.addAll(fileSplits);
+        }
+        return result;
+    }
+
+    /**
+     * Each split ends one byte before an indexed record start, i.e. on the
+     * last byte of a separator. The reader of the split, which skips to the
+     * end of the first separator found, therefore starts reading exactly at
+     * the record start, while the reader of the preceding split does not read
+     * that record.
+     */
+    private List<InputSplit> getAlignedSplits(JobContext job, FileSystem fs, FileStatus file, SeparatorIndex index) throws IOException {
+        long length = file.getLen();
+        long splitSize = computeSplitSize(file.getBlockSize(),
+                Math.max(getFormatMinSplitSize(), getMinSplitSize(job)), getMaxSplitSize(job));
+        BlockLocation[] blocks = fs.getFileBlockLocations(file, 0, length);
+        long[] recordStarts = index.getRecordStarts();
+
+        List<InputSplit> splits = new ArrayList<InputSplit>();
+        long splitStart = 0;
+        int i = 0;
+        while (splitStart < length) {
+            long target = splitStart + splitSize;
+            while (i < recordStarts.length && recordStarts[i] - 1 < target) {
+                i++;
+            }
+            long splitEnd = i < recordStarts.length ? recordStarts[i] - 1 : length;
+            String[] hosts = blocks.length > 0 ? blocks[getBlockIndex(blocks, splitStart)].getHosts() : new String[0];
+            splits.add(new FileSplit(file.getPath(), splitStart, splitEnd - splitStart, hosts));
+            splitStart = splitEnd;
+        }
+        return splits;
+    }
 }
@@ -1,121 +1,410 @@
 package pl.edu.icm.coansys.richimporttsv.io;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.fs.Seekable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.SplitCompressionInputStream;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 
 import java.io.IOException;
+import java.io.InputStream;
 import org.apache.hadoop.hbase.util.Bytes;
+import pl.edu.icm.coansys.richimporttsv.algorithm.SeparatorMatcher;
 
 public class SeparatorRecordReader extends RecordReader<LongWritable, Text> {
 
+    private static final Log LOG = LogFactory.getLog(SeparatorRecordReader.class);
+
     final public static String RECORD_SEPARATOR_CONF_KEY = "record.separator";
+    final public static String RECORD_SEPARATORS_CONF_KEY = "record.separators";
+    final public static String BUFFER_SIZE_CONF_KEY = "record.buffer.size";
+    final public static String TIMING_CONF_KEY = "record.timing";
+    final public static String MAX_LENGTH_CONF_KEY = "record.max.length";
+    final public static String REPORT_OVERSIZE_CONF_KEY = "record.max.length.report";
+    final public static String COUNTER_GROUP = "SeparatorRecordReader";
     final static String DEFAULT_RECORD_SEPARATOR = "\n";
+    final static int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    // oversize records logged by a reader, the rest are only counted
+    final static int MAX_REPORTED_OVERSIZE = 10;
     private long start;
     private long end;
-    private long bytesConsumed = 0;
-    private long bytesToConsume;
-    private boolean stillInChunk = true;
+    private Path path;
     private FSDataInputStream fsin;
-    private DataOutputBuffer buffer = new DataOutputBuffer();
-    private byte[] endTag;
+    // the (decompressed) input and, for compressed input, the stream which
+    // reports the position in the compressed file
+    private InputStream in;
+    private Seekable filePosition;
+    private Decompressor decompressor;
+    private SeparatorMatcher separatorMatcher;
+    // chunk of the input; buffer[0] is located at bufferStart in the file
+    // and only bytes from [0, bufferLength) are valid
+    private byte[] buffer;
+    // size of the buffer to return to after a large record
+    private int bufferSize;
+    private int bufferLength = 0;
+    private int bufferPosition = 0;
+    private long bufferStart;
+    private boolean eof = false;
+    // boundaries (within buffer) of the last record found by readUntilMatch
+    private int recordStart;
+    private int recordEnd;
+    // longer records are skipped, without keeping them in the buffer
+    private int maxRecordLength;
+    private boolean reportOversize;
+    private int reportedOversize = 0;
+    private boolean recordSkipped = false;
+    private Counter oversizeRecords;
+    private Counter oversizeBytes;
     // key/values types
     private LongWritable key = new LongWritable();
     private Text value = new Text();
+    // time spent reading from the input stream, if measured
+    private Counter readMillis;
+    private long readNanos = 0;
 
     @Override
     public void initialize(InputSplit inputSplit, TaskAttemptContext taskAttemptContext) throws IOException, InterruptedException {
-        Configuration conf = taskAttemptContext.getConfiguration();
-        endTag = Bytes.toBytes(conf.get(RECORD_SEPARATOR_CONF_KEY, DEFAULT_RECORD_SEPARATOR));
+        if (taskAttemptContext.getConfiguration().getBoolean(TIMING_CONF_KEY, false)
+                && taskAttemptContext instanceof TaskInputOutputContext) {
+            readMillis = ((TaskInputOutputContext) taskAttemptContext).getCounter(COUNTER_GROUP, "Read Millis");
+        }
+        if (taskAttemptContext instanceof TaskInputOutputContext) {
+            TaskInputOutputContext context = (TaskInputOutputContext) taskAttemptContext;
+            oversizeRecords = context.getCounter(COUNTER_GROUP, "Oversize Records");
+            oversizeBytes = context.getCounter(COUNTER_GROUP, "Oversize Record Bytes");
+        }
+        initialize(inputSplit, taskAttemptContext.getConfiguration());
+    }
+
+    /**
+     * Initializes the reader outside of a task, e.g. when the input is sampled
+     * on the client side.
+     */
+    public void initialize(InputSplit inputSplit, Configuration conf) throws IOException {
+        separatorMatcher = SeparatorMatcher.compile(getRecordSeparators(conf));
+        bufferSize = Math.max(conf.getInt(BUFFER_SIZE_CONF_KEY, DEFAULT_BUFFER_SIZE), separatorMatcher.getMaxLength());
+        buffer = new byte[bufferSize];
+        maxRecordLength = conf.getInt(MAX_LENGTH_CONF_KEY, Integer.MAX_VALUE);
+        reportOversize = conf.getBoolean(REPORT_OVERSIZE_CONF_KEY, false);
 
         FileSplit split = (FileSplit) inputSplit;
-        Path path = split.getPath();
+        path = split.getPath();
         FileSystem fs = path.getFileSystem(conf);
 
         fsin = fs.open(path);
         start = split.getStart();
         end = split.getStart() + split.getLength();
-        bytesToConsume = end - start;
-        fsin.seek(start);
 
-        if (start != 0) {
-            // we are probably starting in the middle of a record
-            // so read this one and discard, as the previous call
-            // on the preceding chunk read this one already
-            readUntilMatch(endTag, false);
+        CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(path);
+        if (codec != null) {
+            decompressor = CodecPool.getDecompressor(codec);
+            if (codec instanceof SplittableCompressionCodec) {
+                SplitCompressionInputStream cin = ((SplittableCompressionCodec) codec).createInputStream(
+                        fsin, decompressor, start, end, SplittableCompressionCodec.READ_MODE.BYBLOCK);
+                in = cin;
+                filePosition = cin;
+                start = cin.getAdjustedStart();
+                end = cin.getAdjustedEnd();
+            } else {
+                // not splittable, so the split is the whole file
+                in = codec.createInputStream(fsin, decompressor);
+                filePosition = fsin;
+            }
+            bufferStart = start;
+            if (start != 0) {
+                // the decompressed stream starts at a block boundary, so we can
+                // not look back and the first separator found is taken
+                readUntilMatch(false);
+            }
+        } else if (start != 0) {
+            in = fsin;
+            // we are probably starting in the middle of a record, which has
+            // been read by the reader of the preceding split. A record belongs
+            // to the split in which it starts, or to the preceding one if it
+            // starts exactly at the split boundary. The separator terminating
+            // that record may begin before our start, so look a bit back.
+            bufferStart = findResyncPosition();
+            fsin.seek(bufferStart);
+            while (readUntilMatch(false) && getPos() <= start) {
+                // skip separators ending before our start
+            }
+        } else {
+            in = fsin;
+            fsin.seek(start);
+            bufferStart = start;
         }
     }
 
-    @Override
-    public boolean nextKeyValue() throws IOException {
-        if (!stillInChunk) {
-            return false;
+    /**
+     * Returns the alternative record separators given as a comma separated
+     * list in record.separators or else the single record.separator.
+     */
+    public static byte[][] getRecordSeparators(Configuration conf) {
+        String separators = conf.get(RECORD_SEPARATORS_CONF_KEY);
+        if (separators != null) {
+            return SeparatorMatcher.parseAlternatives(separators);
         }
+        return new byte[][]{Bytes.toBytes(conf.get(RECORD_SEPARATOR_CONF_KEY, DEFAULT_RECORD_SEPARATOR))};
+    }
 
-        // status is true as long as we're still within the
-        // chunk we got (i.e., fsin.getPos() < end). If we've
-        // read beyond the chunk it will be false
-        boolean status = readUntilMatch(endTag, true);
-        boolean isFinished = fsin.getPos() >= end;
-        int bufferContentLength = buffer.getLength() - (status ? endTag.length : 0);
-        key.set(fsin.getPos());
-        value.set(buffer.getData(), 0, bufferContentLength);
-        bytesConsumed += buffer.getLength();
-        buffer.reset();
-
-        if (isFinished) {
-            stillInChunk = false;
+    /**
+     * Returns the bytes identifying the record separators in a SeparatorIndex:
+     * the single separator or the list of alternatives, as configured.
+     */
+    public static byte[] getSeparatorKey(Configuration conf) {
+        String separators = conf.get(RECORD_SEPARATORS_CONF_KEY);
+        if (separators != null) {
+            return Bytes.toBytes(separators);
         }
+        return Bytes.toBytes(conf.get(RECORD_SEPARATOR_CONF_KEY, DEFAULT_RECORD_SEPARATOR));
+    }
 
-        return true;
+    @Override
+    public boolean nextKeyValue() throws IOException {
+        while (true) {
+            // records starting after the end of the split belong to the next one
+            if (getFilePosition() > end) {
+                return false;
+            }
+
+            boolean matched = readUntilMatch(true);
+            if (recordSkipped) {
+                recordSkipped = false;
+                if (!matched) {
+                    return false;
+                }
+                continue;
+            }
+            if (!matched && recordEnd == recordStart) {
+                // nothing left but the end of the file
+                return false;
+            }
+            key.set(getPos());
+            value.set(buffer, recordStart, recordEnd - recordStart);
+            return true;
+        }
     }
 
     @Override
     public float getProgress() throws IOException, InterruptedException {
-        return (bytesToConsume == 0 ? 0f : bytesConsumed / bytesToConsume);
+        if (start == end) {
+            return 0f;
+        }
+        return Math.min(1f, (getFilePosition() - start) / (float) (end - start));
     }
 
     @Override
     public void close() throws IOException {
-        fsin.close();
+        if (readMillis != null) {
+            readMillis.increment(readNanos / 1000000);
+            readNanos = 0;
+        }
+        try {
+            if (in != null) {
+                in.close();
+            } else if (fsin != null) {
+                fsin.close();
+            }
+        } finally {
+            if (decompressor != null) {
+                CodecPool.returnDecompressor(decompressor);
+                decompressor = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the position in the file used to decide which split a record
+     * belongs to. For compressed input it is the position in the compressed
+     * file, as reported by the codec, so it is comparable with the start and
+     * length of the split.
+     */
+    public long getFilePosition() throws IOException {
+        return filePosition != null ? filePosition.getPos() : getPos();
+    }
+
+    /**
+     * Returns the position in the file of the first byte that has not been
+     * consumed yet.
+     */
+    private long getPos() {
+        return bufferStart + bufferPosition;
+    }
+
+    /**
+     * Returns the position from which separators can be searched for to find
+     * the first one ending after the start of the split. Normally, it is just
+     * the beginning of the separator which may straddle the start. However,
+     * if the separator is self-overlapping, the search has to start where
+     * the preceding split reader may not have been in the middle of a
+     * separator, i.e. right after the last byte which is not a part of it.
+     */
+    private long findResyncPosition() throws IOException {
+        if (!separatorMatcher.isSelfOverlapping()) {
+            return Math.max(0, start - (separatorMatcher.getMaxLength() - 1));
+        }
+        long position = start;
+        while (position > 0) {
+            int length = (int) Math.min(buffer.length, position);
+            position -= length;
+            fsin.seek(position);
+            fsin.readFully(buffer, 0, length);
+            for (int i = length - 1; i >= 0; i--) {
+                if (!separatorMatcher.isSeparatorByte(buffer[i])) {
+                    return position + i + 1;
+                }
+            }
+        }
+        return 0;
     }
 
-    private boolean readUntilMatch(byte[] match, boolean withinBlock) throws IOException {
-        int i = 0;
+    /**
+     * Scans the buffered chunk (refilling it when needed) until a separator is
+     * found. On return the found record spans [recordStart, recordEnd) of the
+     * buffer, without the separator itself. When withinBlock is not set, the
+     * bytes preceding the separator are only skipped, not kept in the buffer.
+     * A record longer than the maximal length is skipped in the same way and
+     * then recordSkipped is set.
+     */
+    private boolean readUntilMatch(boolean withinBlock) throws IOException {
+        int scanPosition = bufferPosition;
+        long skippedStart = -1;
         while (true) {
-            int b = fsin.read();
-            if (b == -1) {
-                return false;
+            int separatorStart = separatorMatcher.indexOf(buffer, scanPosition, bufferLength);
+            // of alternative separators, a longer one starting no later may
+            // straddle the end of the chunk, so the one found has to wait
+            boolean deferred = separatorStart != SeparatorMatcher.FAILURE && !eof
+                    && separatorStart + separatorMatcher.getMaxLength() > bufferLength;
+            if (separatorStart != SeparatorMatcher.FAILURE && !deferred) {
+                if (withinBlock && separatorStart - bufferPosition > maxRecordLength) {
+                    skippedStart = bufferStart + bufferPosition;
+                }
+                recordStart = bufferPosition;
+                recordEnd = separatorStart;
+                bufferPosition = separatorStart + separatorMatcher.getMatchLength();
+                if (skippedStart != -1) {
+                    skipped(skippedStart, bufferStart + separatorStart);
+                }
+                return true;
+            }
+
+            // a separator may straddle the end of the chunk, so its possible
+            // beginning has to be scanned again once more bytes are read
+            long resumePosition = bufferStart + Math.max(bufferPosition, bufferLength - (separatorMatcher.getMaxLength() - 1));
+            if (withinBlock && resumePosition - (bufferStart + bufferPosition) > maxRecordLength) {
+                // the record is too long, so stop keeping it
+                skippedStart = bufferStart + bufferPosition;
+                withinBlock = false;
             }
-            if (withinBlock) {
-                buffer.write(b);
+            if (!withinBlock) {
+                bufferPosition = (int) (resumePosition - bufferStart);
             }
-            if (b == match[i]) {
-                i++;
-                if (i >= match.length) {
-                    return true;
+            if (!fill()) {
+                if (deferred) {
+                    // no more bytes, so the separator found is the one
+                    scanPosition = (int) (resumePosition - bufferStart);
+                    continue;
                 }
-            } else {
-                i = 0;
+                if (withinBlock && bufferLength - bufferPosition > maxRecordLength) {
+                    skippedStart = bufferStart + bufferPosition;
+                }
+                recordStart = bufferPosition;
+                recordEnd = bufferLength;
+                bufferPosition = bufferLength;
+                if (skippedStart != -1) {
+                    skipped(skippedStart, bufferStart + bufferLength);
+                }
+                return false;
             }
+            scanPosition = (int) (resumePosition - bufferStart);
+        }
+    }
+
+    /**
+     * Counts (and logs, if requested, up to MAX_REPORTED_OVERSIZE per split)
+     * a record longer than the maximal length, spanning [skippedStart,
+     * skippedEnd) of the file.
+     */
+    private void skipped(long skippedStart, long skippedEnd) {
+        recordSkipped = true;
+        if (oversizeRecords != null) {
+            oversizeRecords.increment(1);
+            oversizeBytes.increment(skippedEnd - skippedStart);
+        }
+        if (reportOversize && reportedOversize < MAX_REPORTED_OVERSIZE) {
+            reportedOversize++;
+            LOG.warn("Oversize record at offset: " + skippedStart + " of " + path
+                    + " (" + (skippedEnd - skippedStart) + " bytes) skipped"
+                    + (reportedOversize == MAX_REPORTED_OVERSIZE ? "; further ones are only counted" : ""));
+        }
+    }
+
+    /**
+     * Reads the next chunk of the input into the buffer, preserving the bytes
+     * from bufferPosition on. The buffer is compacted or, if it is entirely
+     * occupied by a single record, grown. A buffer grown for a large record
+     * is shrunk back to its initial size once the preserved bytes fit in it.
+     */
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        if (bufferPosition > 0) {
+            int remaining = bufferLength - bufferPosition;
+            System.arraycopy(buffer, bufferPosition, buffer, 0, remaining);
+            bufferStart += bufferPosition;
+            bufferPosition = 0;
+            bufferLength = remaining;
+        }
+        if (buffer.length > bufferSize && bufferLength < bufferSize) {
+            byte[] shrunk = new byte[bufferSize];
+            System.arraycopy(buffer, 0, shrunk, 0, bufferLength);
+            buffer = shrunk;
+        }
+        if (bufferLength == buffer.length) {
+            byte[] grown = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, grown, 0, bufferLength);
+            buffer = grown;
         }
+        int read;
+        if (readMillis == null) {
+            read = in.read(buffer, bufferLength, buffer.length - bufferLength);
+        } else {
+            long readStart = System.nanoTime();
+            read = in.read(buffer, bufferLength, buffer.length - bufferLength);
+            readNanos += System.nanoTime() - readStart;
+        }
+        if (read == -1) {
+            eof = true;
+            return false;
+        }
+        bufferLength += read;
+        return true;
     }
 
     @Override
-    public LongWritable getCurrentKey() throws IOException, InterruptedException {
+    public LongWritable getCurrentKey() {
         return key;
     }
 
     @Override
-    public Text getCurrentValue() throws IOException, InterruptedException {
+    public Text getCurrentValue() {
         return value;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,289 @@
+package pl.edu.icm.coansys.richimporttsv.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Lz4Codec;
+import org.apache.hadoop.io.compress.SnappyCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Compresses the values of a column, reusing the compressor and the buffer
+ * the values are written to between values. Each value gets a header, so
+ * that readers can tell how it is stored: the byte NONE followed by the
+ * value as it is (if it is shorter than the minimum size or does not
+ * shrink), or the id of the codec followed by the length of the value (an
+ * int) and the compressed value. For deflate, the value is compressed as a
+ * zlib stream; for snappy and lz4, the value is cut into chunks of at most
+ * the input size of the output stream of the codec, each compressed on its
+ * own and preceded by its compressed length, so that the header without its
+ * first byte and the chunks are what BlockCompressorStream writes for the
+ * value given in a single write (and what BlockDecompressorStream reads).
+ * Use {@link #decompress} to read a value back. A compression must not be
+ * shared between threads and must be closed to release its compressor.
+ */
+public abstract class ValueCompression {
+
+    public static final String DEFLATE = "deflate";
+    public static final String SNAPPY = "snappy";
+    public static final String LZ4 = "lz4";
+    public static final byte NONE = 0;
+    public static final byte DEFLATE_ID = 1;
+    public static final byte SNAPPY_ID = 2;
+    public static final byte LZ4_ID = 3;
+    /**
+     * Length of the header of a compressed value
+     */
+    public static final int HEADER_LENGTH = 1 + Bytes.SIZEOF_INT;
+    /**
+     * Returned by compress(bytes, offset, length, buffer, bufferOffset,
+     * maxLength) if the value does not shrink
+     */
+    protected static final int FAILURE = -1;
+    // the keys of the buffer sizes of the codecs, as their output streams read them
+    private static final String SNAPPY_BUFFER_SIZE_CONF_KEY = "io.compression.codec.snappy.buffersize";
+    private static final String LZ4_BUFFER_SIZE_CONF_KEY = "io.compression.codec.lz4.buffersize";
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    private final String name;
+    private final byte id;
+    private final int minSize;
+    private byte[] buffer = new byte[1024];
+
+    protected ValueCompression(String name, byte id, int minSize) {
+        this.name = name;
+        this.id = id;
+        this.minSize = minSize;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns whether there is a compression of the given name.
+     */
+    public static boolean isCompression(String name) {
+        return DEFLATE.equals(name) || SNAPPY.equals(name) || LZ4.equals(name);
+    }
+
+    /**
+     * Compiles the named compression of the values of at least minSize
+     * bytes: "deflate" (always available), "snappy" or "lz4" (if the native
+     * libraries of Hadoop are loaded).
+     *
+     * @throws IllegalArgumentException if the compression is unknown or not
+     * available
+     */
+    public static ValueCompression compile(String name, Configuration conf, int minSize) {
+        if (DEFLATE.equals(name)) {
+            return new DeflateCompression(minSize);
+        }
+        if (!isCompression(name)) {
+            throw new IllegalArgumentException("Unknown compression: " + name);
+        }
+        CompressionCodec codec = createCodec(SNAPPY.equals(name) ? SNAPPY_ID : LZ4_ID, conf);
+        Compressor compressor;
+        try {
+            compressor = CodecPool.getCompressor(codec);
+        } catch (RuntimeException e) {
+            // thrown by the codecs if the native library is not loaded
+            throw new IllegalArgumentException("Compression " + name + " is not available: " + e.getMessage(), e);
+        }
+        // the largest chunk compressed at once by the output stream of the codec
+        int maxChunkLength;
+        if (SNAPPY.equals(name)) {
+            int bufferSize = conf.getInt(SNAPPY_BUFFER_SIZE_CONF_KEY, DEFAULT_BUFFER_SIZE);
+            maxChunkLength = bufferSize - (bufferSize / 6 + 32);
+        } else {
+            int bufferSize = conf.getInt(LZ4_BUFFER_SIZE_CONF_KEY, DEFAULT_BUFFER_SIZE);
+            maxChunkLength = bufferSize - (bufferSize / 255 + 16);
+        }
+        return new BlockCompression(name, SNAPPY.equals(name) ? SNAPPY_ID : LZ4_ID, minSize, compressor, maxChunkLength);
+    }
+
+    private static CompressionCodec createCodec(byte id, Configuration conf) {
+        if (id == SNAPPY_ID) {
+            return ReflectionUtils.newInstance(SnappyCodec.class, conf);
+        }
+        return ReflectionUtils.newInstance(Lz4Codec.class, conf);
+    }
+
+    /**
+     * Writes the value stored in the [offset, offset + length) range of the
+     * bytes, with its header, into the buffer returned by getBuffer(), valid
+     * until the next call.
+     *
+     * @return the length of the value written
+     */
+    public int compress(byte[] bytes, int offset, int length) {
+        if (length >= minSize) {
+            ensureCapacity(HEADER_LENGTH + length);
+            int compressedLength = compress(bytes, offset, length, buffer, HEADER_LENGTH, length);
+            if (compressedLength != FAILURE) {
+                buffer[0] = id;
+                Bytes.putInt(buffer, 1, length);
+                return HEADER_LENGTH + compressedLength;
+            }
+        }
+        ensureCapacity(1 + length);
+        buffer[0] = NONE;
+        System.arraycopy(bytes, offset, buffer, 1, length);
+        return 1 + length;
+    }
+
+    /**
+     * Compresses the value into the buffer, from the given offset on.
+     *
+     * @return the length of the compressed value or FAILURE if it would take
+     * maxLength bytes or more
+     */
+    protected abstract int compress(byte[] bytes, int offset, int length, byte[] buffer, int bufferOffset, int maxLength);
+
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Releases the compressor, after which the compression can not be used.
+     */
+    public abstract void close();
+
+    private void ensureCapacity(int length) {
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, 2 * buffer.length)];
+        }
+    }
+
+    /**
+     * Returns the value stored in a cell written by a compression.
+     */
+    public static byte[] decompress(byte[] cell, Configuration conf) throws IOException {
+        if (cell.length == 0) {
+            throw new IOException("No header");
+        }
+        byte id = cell[0];
+        if (id == NONE) {
+            return Arrays.copyOfRange(cell, 1, cell.length);
+        }
+        if (id != DEFLATE_ID && id != SNAPPY_ID && id != LZ4_ID) {
+            throw new IOException("Unknown compression id: " + id);
+        }
+        byte[] value = new byte[Bytes.toInt(cell, 1)];
+        if (id == DEFLATE_ID) {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(cell, HEADER_LENGTH, cell.length - HEADER_LENGTH);
+                int length = 0;
+                while (length < value.length) {
+                    int inflated = inflater.inflate(value, length, value.length - length);
+                    if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                        throw new IOException("Truncated value");
+                    }
+                    length += inflated;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            } finally {
+                inflater.end();
+            }
+        } else {
+            DataInputStream in = new DataInputStream(createCodec(id, conf).createInputStream(
+                    new ByteArrayInputStream(cell, 1, cell.length - 1)));
+            try {
+                in.readFully(value);
+            } finally {
+                in.close();
+            }
+        }
+        return value;
+    }
+
+    static class DeflateCompression extends ValueCompression {
+
+        private final Deflater deflater = new Deflater();
+
+        DeflateCompression(int minSize) {
+            super(DEFLATE, DEFLATE_ID, minSize);
+        }
+
+        @Override
+        protected int compress(byte[] bytes, int offset, int length, byte[] buffer, int bufferOffset, int maxLength) {
+            deflater.reset();
+            deflater.setInput(bytes, offset, length);
+            deflater.finish();
+            int end = bufferOffset + maxLength;
+            int i = bufferOffset;
+            while (!deflater.finished()) {
+                if (i == end) {
+                    return FAILURE;
+                }
+                i += deflater.deflate(buffer, i, end - i);
+            }
+            return i - bufferOffset;
+        }
+
+        @Override
+        public void close() {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Compresses values with a Compressor of a Hadoop codec, borrowed from
+     * CodecPool, as BlockCompressorStream does: in chunks, each preceded by
+     * its compressed length.
+     */
+    static class BlockCompression extends ValueCompression {
+
+        private final Compressor compressor;
+        private final int maxChunkLength;
+
+        BlockCompression(String name, byte id, int minSize, Compressor compressor, int maxChunkLength) {
+            super(name, id, minSize);
+            this.compressor = compressor;
+            this.maxChunkLength = maxChunkLength;
+        }
+
+        @Override
+        protected int compress(byte[] bytes, int offset, int length, byte[] buffer, int bufferOffset, int maxLength) {
+            int end = bufferOffset + maxLength;
+            int i = bufferOffset;
+            try {
+                for (int chunk = offset; chunk < offset + length; chunk += maxChunkLength) {
+                    int lengthOffset = i;
+                    i += Bytes.SIZEOF_INT;
+                    if (i >= end) {
+                        return FAILURE;
+                    }
+                    compressor.reset();
+                    compressor.setInput(bytes, chunk, Math.min(maxChunkLength, offset + length - chunk));
+                    compressor.finish();
+                    while (!compressor.finished()) {
+                        if (i == end) {
+                            return FAILURE;
+                        }
+                        i += compressor.compress(buffer, i, end - i);
+                    }
+                    Bytes.putInt(buffer, lengthOffset, i - lengthOffset - Bytes.SIZEOF_INT);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return i - bufferOffset;
+        }
+
+        @Override
+        public void close() {
+            CodecPool.returnCompressor(compressor);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
+
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * Collects the statistics of a mapper and adds them to its counters when the
+ * mapper finishes. The time spent in each stage (reading, parsing, building
+ * KeyValues or Puts and writing) is measured for every n-th record only and
+ * then scaled to all the records.
+ */
+public class ImportMetrics {
+
+    private static final Log LOG = LogFactory.getLog(ImportMetrics.class);
+
+    public final static String GROUP = "RichImportTsv";
+    public final static String FAMILIES_GROUP = "RichImportTsv Families";
+    public final static String BAD_LINES_GROUP = "RichImportTsv Bad Lines";
+    final static int DEFAULT_SAMPLE_INTERVAL = 100;
+    private final TaskInputOutputContext context;
+    private final int sampleInterval;
+    // distinct families of the columns, in the order of their KeyValues
+    private final byte[][] families;
+    private final long[] familyCells;
+    private final long[] familyBytes;
+    private long calls = 0;
+    private long sampledRecords = 0;
+    private long records = 0;
+    private long bytes = 0;
+    private long maxRecordSize = 0;
+    private long readNanos = 0;
+    private long writeNanos = 0;
+    // parsing and building may be done by many threads at once
+    private final AtomicLong parseNanos = new AtomicLong();
+    private final AtomicLong buildNanos = new AtomicLong();
+
+    public ImportMetrics(TaskInputOutputContext context, RichImportTsv.RichTsvParser parser, int sampleInterval) {
+        this.context = context;
+        this.sampleInterval = Math.max(1, sampleInterval);
+        TreeSet<byte[]> distinct = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+        for (int i = 0; i < parser.getColumnCount(); i++) {
+            if (parser.isValueColumn(i)) {
+                distinct.add(parser.getFamily(i));
+            }
+        }
+        families = distinct.toArray(new byte[distinct.size()][]);
+        familyCells = new long[families.length];
+        familyBytes = new long[families.length];
+    }
+
+    /**
+     * Returns whether the stages of the next record should be timed.
+     */
+    public boolean sample() {
+        if (calls++ % sampleInterval != 0) {
+            return false;
+        }
+        sampledRecords++;
+        return true;
+    }
+
+    public void addReadNanos(long nanos) {
+        readNanos += nanos;
+    }
+
+    public void addParseNanos(long nanos) {
+        parseNanos.addAndGet(nanos);
+    }
+
+    public void addBuildNanos(long nanos) {
+        buildNanos.addAndGet(nanos);
+    }
+
+    public void addWriteNanos(long nanos) {
+        writeNanos += nanos;
+    }
+
+    public void addRecord(int size) {
+        records++;
+        bytes += size;
+        if (size > maxRecordSize) {
+            maxRecordSize = size;
+        }
+    }
+
+    /**
+     * Counts the KeyValues of a record, which are sorted by family.
+     */
+    public void addKeyValues(List<KeyValue> keyValues) {
+        int family = 0;
+        for (KeyValue kv : keyValues) {
+            while (Bytes.compareTo(families[family], 0, families[family].length,
+                    kv.getBuffer(), kv.getFamilyOffset(), kv.getFamilyLength()) != 0) {
+                family = (family + 1) % families.length;
+            }
+            familyCells[family]++;
+            familyBytes[family] += kv.getLength();
+        }
+    }
+
+    public void addBadLine(String reason) {
+        context.getCounter(BAD_LINES_GROUP, reason).increment(1);
+    }
+
+    private long estimateMillis(long sampledNanos) {
+        if (sampledRecords == 0) {
+            return 0;
+        }
+        return (long) ((double) sampledNanos * records / sampledRecords / 1000000);
+    }
+
+    /**
+     * Adds the collected statistics to the counters, which are summed over
+     * the tasks (the average record size is Record Bytes / Records), and
+     * logs the record sizes of this task, which do not add up.
+     */
+    public void close() {
+        context.getCounter(GROUP, "Records").increment(records);
+        context.getCounter(GROUP, "Record Bytes").increment(bytes);
+        LOG.info("Records: " + records + ", maximal size: " + maxRecordSize
+                + ", average size: " + (records == 0 ? 0 : bytes / records));
+        context.getCounter(GROUP, "Sampled Records").increment(sampledRecords);
+        context.getCounter(GROUP, "Read Millis (estimated)").increment(estimateMillis(readNanos));
+        context.getCounter(GROUP, "Parse Millis (estimated)").increment(estimateMillis(parseNanos.get()));
+        context.getCounter(GROUP, "Build Millis (estimated)").increment(estimateMillis(buildNanos.get()));
+        context.getCounter(GROUP, "Write Millis (estimated)").increment(estimateMillis(writeNanos));
+        for (int i = 0; i < families.length; i++) {
+            String family = Bytes.toString(families[i]);
+            context.getCounter(FAMILIES_GROUP, family + " Cells").increment(familyCells[i]);
+            context.getCounter(FAMILIES_GROUP, family + " Bytes").increment(familyBytes[i]);
+        }
+    }
+}
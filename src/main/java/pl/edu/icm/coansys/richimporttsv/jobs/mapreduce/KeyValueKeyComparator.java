@@ -0,0 +1,38 @@
+package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Sorts map output keys holding whole KeyValue keys (row, family, qualifier,
+ * timestamp and type) in the order in which they are stored in HFiles, so
+ * that the reducer receives the KeyValues of each row already sorted.
+ */
+public class KeyValueKeyComparator extends WritableComparator {
+
+    // serialized ImmutableBytesWritable starts with the length of the bytes
+    private static final int LENGTH_SIZE = 4;
+
+    public KeyValueKeyComparator() {
+        super(ImmutableBytesWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        return KeyValue.KEY_COMPARATOR.compare(
+                b1, s1 + LENGTH_SIZE, l1 - LENGTH_SIZE,
+                b2, s2 + LENGTH_SIZE, l2 - LENGTH_SIZE);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int compare(WritableComparable a, WritableComparable b) {
+        ImmutableBytesWritable left = (ImmutableBytesWritable) a;
+        ImmutableBytesWritable right = (ImmutableBytesWritable) b;
+        return KeyValue.KEY_COMPARATOR.compare(
+                left.get(), left.getOffset(), left.getLength(),
+                right.get(), right.getOffset(), right.getLength());
+    }
+}
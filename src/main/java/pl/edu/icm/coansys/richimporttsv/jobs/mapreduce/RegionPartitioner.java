@@ -0,0 +1,39 @@
+package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.mapreduce.Partitioner;
+import pl.edu.icm.coansys.richimporttsv.io.RegionStartKeys;
+
+/**
+ * Sends each KeyValue to the reducer of the region its row belongs to. Unlike
+ * TotalOrderPartitioner, it does not look at the map output key, so the key
+ * can be sorted by something else than the row (see KeyValueKeyComparator).
+ */
+public class RegionPartitioner extends Partitioner<ImmutableBytesWritable, KeyValue> implements Configurable {
+
+    private Configuration conf;
+    private byte[][] startKeys;
+
+    @Override
+    public int getPartition(ImmutableBytesWritable key, KeyValue kv, int numPartitions) {
+        if (startKeys.length == 0) {
+            return 0;
+        }
+        int region = RegionStartKeys.getRegion(startKeys, kv.getBuffer(), kv.getRowOffset(), kv.getRowLength());
+        return Math.min(region, numPartitions - 1);
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        startKeys = RegionStartKeys.get(conf);
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+}
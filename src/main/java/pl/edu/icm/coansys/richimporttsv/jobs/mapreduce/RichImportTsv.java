@@ -22,16 +22,41 @@ import com.google.common.base.Splitter;
 import com.google.common.collect.Lists;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.mapreduce.*;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
-import pl.edu.icm.coansys.richimporttsv.algorithm.KMPMatcher;
+import pl.edu.icm.coansys.richimporttsv.algorithm.RowKeyTransform;
+import pl.edu.icm.coansys.richimporttsv.algorithm.SeparatorMatcher;
+import pl.edu.icm.coansys.richimporttsv.algorithm.TagDispatchTable;
+import pl.edu.icm.coansys.richimporttsv.algorithm.ValueEncoding;
+import pl.edu.icm.coansys.richimporttsv.io.CombineSeparatorInputFormat;
+import pl.edu.icm.coansys.richimporttsv.io.MultiTableHFileOutputFormat;
+import pl.edu.icm.coansys.richimporttsv.io.PresortedHFileOutputFormat;
+import pl.edu.icm.coansys.richimporttsv.io.RegionStartKeys;
+import pl.edu.icm.coansys.richimporttsv.io.RejectCommittingOutputFormat;
+import pl.edu.icm.coansys.richimporttsv.io.RejectOutputFormat;
 import pl.edu.icm.coansys.richimporttsv.io.SeparatorInputFormat;
 import pl.edu.icm.coansys.richimporttsv.io.SeparatorRecordReader;
+import pl.edu.icm.coansys.richimporttsv.io.ValueCompression;
 
 /**
  *
@@ -39,19 +64,70 @@ import pl.edu.icm.coansys.richimporttsv.io.SeparatorRecordReader;
  */
 public class RichImportTsv extends ImportTsv {
 
+    private static final Log LOG = LogFactory.getLog(RichImportTsv.class);
+
     public final static String ROWKEY_COLUMN_SPEC = "HBASE_ROW_KEY";
+    public final static String IGNORED_COLUMN_SPEC = "_";
+    public final static char TABLE_SEPARATOR = '/';
+    // the index of the table is written as a single byte of the sort key
+    public final static int MAX_TABLES = 256;
+    public final static String ELEMENT_QUALIFIERS_SPEC = "*";
+    public final static String INDEXED_QUALIFIERS_SPEC = "[]";
     public final static String NAME = RichImportTsv.class.getName();
     public final static String INPUT_FORMAT_CONF_KEY = "importtsv.input.format.class";
     public final static String MAPPER_CONF_KEY = "importtsv.mapper.class";
     public final static String SKIP_LINES_CONF_KEY = "importtsv.skip.bad.lines";
     public final static String BULK_OUTPUT_CONF_KEY = "importtsv.bulk.output";
+    public final static String BULK_PRESORTED_CONF_KEY = "importtsv.bulk.presorted";
+    public final static String BULK_PRESORTED_CHECK_CONF_KEY = "importtsv.bulk.presorted.check";
+    public final static String BULK_STREAMING_CONF_KEY = "importtsv.bulk.streaming";
     public final static String COLUMNS_CONF_KEY = "importtsv.columns";
     public final static String SEPARATOR_CONF_KEY = "importtsv.separator";
+    public final static String SEPARATORS_CONF_KEY = "importtsv.separators";
     public final static String SKIP_UNTIL_SEPARATOR_CONF_KEY = "importtsv.skip.until.separator";
     public final static String RECORD_SEPARATOR_CONF_KEY = "importtsv.record.separator";
+    public final static String RECORD_SEPARATORS_CONF_KEY = "importtsv.record.separators";
+    public final static String RECORD_BUFFER_SIZE_CONF_KEY = "importtsv.record.buffer.size";
+    public final static String RECORD_INDEX_CONF_KEY = "importtsv.record.index";
+    public final static String RECORD_MAX_LENGTH_CONF_KEY = "importtsv.record.max.length";
+    public final static String RECORD_MAX_LENGTH_REPORT_CONF_KEY = "importtsv.record.max.length.report";
+    public final static String COMBINE_MAX_SPLIT_SIZE_CONF_KEY = "importtsv.combine.max.split.size";
     public final static String TIMESTAMP_CONF_KEY = "importtsv.timestamp";
+    public final static String TAGGED_CONF_KEY = "importtsv.tagged";
+    public final static String TAG_SEPARATOR_CONF_KEY = "importtsv.tag.separator";
+    public final static String INDEXES_CONF_KEY = "importtsv.indexes";
+    public final static String EXPLODE_SEPARATOR_CONF_KEY = "importtsv.explode.separator";
+    public final static String COMPRESS_MIN_SIZE_CONF_KEY = "importtsv.compress.min.size";
+    public final static String PRESPLIT_CONF_KEY = "importtsv.presplit";
+    public final static String COALESCE_CONF_KEY = "importtsv.coalesce";
+    public final static String COALESCE_VERSIONS_CONF_KEY = "importtsv.coalesce.versions";
+    public final static String COALESCE_MAX_BYTES_CONF_KEY = "importtsv.coalesce.max.bytes";
+    public final static String COALESCE_SHIFT_TIMESTAMPS_CONF_KEY = "importtsv.coalesce.shift.timestamps";
+    public final static String ROWKEY_TRANSFORM_CONF_KEY = "importtsv.rowkey.transform";
+    public final static String ROWKEY_BUCKETS_CONF_KEY = "importtsv.rowkey.buckets";
+    public final static String ROWKEY_HASH_WIDTH_CONF_KEY = "importtsv.rowkey.hash.width";
+    public final static String MAPPER_THREADS_CONF_KEY = "importtsv.mapper.threads";
+    public final static String MAPPER_QUEUE_SIZE_CONF_KEY = "importtsv.mapper.queue.size";
+    public final static String PUT_ASYNC_CONF_KEY = "importtsv.put.async";
+    public final static String PUT_WRITE_BUFFER_CONF_KEY = "importtsv.put.write.buffer";
+    public final static String PUT_SKIP_WAL_CONF_KEY = "importtsv.put.skip.wal";
+    public final static String PUT_FLUSH_THREADS_CONF_KEY = "importtsv.put.flush.threads";
+    public final static String REJECT_DIR_CONF_KEY = "importtsv.reject.dir";
+    public final static String REJECT_MAX_CONF_KEY = "importtsv.reject.max";
+    public final static String REJECT_SAMPLE_INTERVAL_CONF_KEY = "importtsv.reject.sample.interval";
+    public final static String REJECTS_NAMED_OUTPUT = "rejects";
+    public final static String METRICS_CONF_KEY = "importtsv.metrics";
+    public final static String METRICS_SAMPLE_INTERVAL_CONF_KEY = "importtsv.metrics.sample.interval";
+    public final static long DEFAULT_PUT_WRITE_BUFFER = 2 * 1024 * 1024;
+    public final static int DEFAULT_PUT_FLUSH_THREADS = 4;
     public final static String DEFAULT_SEPARATOR = "\t";
     public final static String DEFAULT_RECORD_SEPARATOR = "\n";
+    public final static String DEFAULT_TAG_SEPARATOR = " ";
+    public final static String DEFAULT_EXPLODE_SEPARATOR = " ";
+    public final static int DEFAULT_COMPRESS_MIN_SIZE = 1024;
+    public final static long DEFAULT_COALESCE_MAX_BYTES = 64 * 1024 * 1024;
+    public final static int DEFAULT_ROWKEY_BUCKETS = 16;
+    public final static int DEFAULT_ROWKEY_HASH_WIDTH = 4;
     public final static Class DEFAULT_MAPPER = RichTsvImporterMapper.class;
     public final static Class DEFAULT_INPUT_FORMAT = SeparatorInputFormat.class;
 
@@ -62,19 +138,110 @@ public class RichImportTsv extends ImportTsv {
          */
         private final byte[][] families;
         private final byte[][] qualifiers;
-        private final byte[] separatorBytes;
+        /**
+         * Tables the columns are written to, as indexes of their names: 0
+         * for the table given on the command line and the following ones for
+         * the tables named as table/family:qualifier or by the indexes
+         */
+        private final int[] tables;
+        private final List<String> tableNames = new ArrayList<String>();
+        /**
+         * Columns whose values are the row keys of index tables, and these
+         * tables
+         */
+        private int[] indexColumns = new int[0];
+        private int[] indexTables = new int[0];
+        /**
+         * Encodings of the typed columns (null for the text ones) and the
+         * buffer the values are encoded into, reused between values
+         */
+        private final ValueEncoding[] encodings;
+        private final byte[] valueBuffer = new byte[ValueEncoding.MAX_LENGTH];
+        /**
+         * Names of the compressions of the compressed columns (null for the
+         * rest) and the compressions, each writing into its own buffer
+         */
+        private final String[] compressionNames;
+        private final ValueCompression[] compressions;
+        /**
+         * How the values of the columns are exploded into many cells
+         * (NOT_EXPLODED for the rest), the separator of their elements and
+         * the buffer the qualifiers of the cells are built in, reused between
+         * elements
+         */
+        private final int[] explodes;
+        private boolean hasExplodedColumns = false;
+        private SeparatorMatcher explodeSeparatorMatcher =
+                SeparatorMatcher.compile(Bytes.toBytes(RichImportTsv.DEFAULT_EXPLODE_SEPARATOR));
+        private byte[] qualifierBuffer = new byte[64];
+        private final SeparatorMatcher separatorMatcher;
+        /**
+         * Offsets of the columns of the last parsed record, reused between
+         * records
+         */
+        private final int[] columnStarts;
+        private final int[] columnEnds;
+        private final ParsedLine parsedLine = new ParsedLine();
         private int rowKeyColumnIndex;
+        /**
+         * Index of the last column that is not ignored; the rest of the
+         * record is not scanned for separators
+         */
+        private int lastNeededColumnIndex = -1;
+        /**
+         * In the tagged format, the separator of the tag and the value of each
+         * field and the table mapping the tags to the columns
+         */
+        private final SeparatorMatcher tagSeparatorMatcher;
+        private final TagDispatchTable tagTable;
+        /**
+         * Transform of the row keys, if any
+         */
+        private RowKeyTransform rowKeyTransform;
         public static String ROWKEY_COLUMN_SPEC = RichImportTsv.ROWKEY_COLUMN_SPEC;
+        public static String IGNORED_COLUMN_SPEC = RichImportTsv.IGNORED_COLUMN_SPEC;
+        public static char TABLE_SEPARATOR = RichImportTsv.TABLE_SEPARATOR;
+        public static final int NOT_EXPLODED = 0;
+        public static final int ELEMENT_QUALIFIERS = 1;
+        public static final int INDEXED_QUALIFIERS = 2;
 
         /**
          * @param columnsSpecification the list of columns to parser out, comma
          * separated. The row key should be the special token
-         * TsvParser.ROWKEY_COLUMN_SPEC
+         * TsvParser.ROWKEY_COLUMN_SPEC and columns which should not be
+         * imported the token IGNORED_COLUMN_SPEC. A column given as
+         * table/family:qualifier is written to the named table instead of the
+         * main one, under the same row key. A column given as
+         * family:qualifier:type, e.g. m:minor:int, is stored in the binary
+         * encoding of Bytes.toBytes for the type (see ValueEncoding), and
+         * one given as family:qualifier:compression, e.g. t:text:snappy, is
+         * compressed (see ValueCompression and setCompressions). The
+         * value of a column given as family:prefix* is exploded into a cell
+         * per element, named after the prefix and the element, with an empty
+         * value; of family:prefix[] into cells named after the prefix and the
+         * index of the element (0, 1, ...), with the element as the value.
          */
         public RichTsvParser(String columnsSpecification, String separatorStr) {
+            this(columnsSpecification, separatorStr, null);
+        }
+
+        /**
+         * @param tagSeparatorStr if not null, each field starts with a tag
+         * followed by this separator and the columns are given as TAG=column,
+         * e.g. CATEGORY=m:cat. Fields may come in any order, fields with other
+         * tags are skipped and columns without a field are left out.
+         */
+        public RichTsvParser(String columnsSpecification, String separatorStr, String tagSeparatorStr) {
+            this(columnsSpecification, new byte[][]{Bytes.toBytes(separatorStr)}, tagSeparatorStr);
+        }
+
+        /**
+         * @param separators alternative field separators, any of which may
+         * end a field
+         */
+        public RichTsvParser(String columnsSpecification, byte[][] separators, String tagSeparatorStr) {
             // Configure separator
-            byte[] separator = Bytes.toBytes(separatorStr);
-            separatorBytes = separator;
+            separatorMatcher = SeparatorMatcher.compile(separators);
 
             // Configure columns
             ArrayList<String> columnStrings = Lists.newArrayList(
@@ -82,28 +249,207 @@ public class RichImportTsv extends ImportTsv {
 
             families = new byte[columnStrings.size()][];
             qualifiers = new byte[columnStrings.size()][];
+            tables = new int[columnStrings.size()];
+            encodings = new ValueEncoding[columnStrings.size()];
+            explodes = new int[columnStrings.size()];
+            compressionNames = new String[columnStrings.size()];
+            compressions = new ValueCompression[columnStrings.size()];
+            tableNames.add(null);
+            columnStarts = new int[columnStrings.size()];
+            columnEnds = new int[columnStrings.size()];
+            byte[][] tags = new byte[columnStrings.size()][];
 
             for (int i = 0; i < columnStrings.size(); i++) {
                 String str = columnStrings.get(i);
+                if (tagSeparatorStr != null) {
+                    int tagEnd = str.indexOf('=');
+                    if (tagEnd == -1) {
+                        throw new IllegalArgumentException("No tag given for column " + str);
+                    }
+                    tags[i] = Bytes.toBytes(str.substring(0, tagEnd));
+                    str = str.substring(tagEnd + 1);
+                }
+                if (IGNORED_COLUMN_SPEC.equals(str)) {
+                    continue;
+                }
+                lastNeededColumnIndex = i;
                 if (ROWKEY_COLUMN_SPEC.equals(str)) {
                     rowKeyColumnIndex = i;
                     continue;
                 }
+                int tableEnd = getTableEnd(str);
+                if (tableEnd != -1) {
+                    tables[i] = addTable(str.substring(0, tableEnd));
+                    str = str.substring(tableEnd + 1);
+                }
                 String[] parts = str.split(":", 2);
                 if (parts.length == 1) {
                     families[i] = str.getBytes();
                     qualifiers[i] = HConstants.EMPTY_BYTE_ARRAY;
                 } else {
                     families[i] = parts[0].getBytes();
+                    int typeStart = getTypeStart(parts[1]);
+                    if (typeStart != -1) {
+                        String type = parts[1].substring(typeStart + 1);
+                        if (ValueCompression.isCompression(type)) {
+                            compressionNames[i] = type;
+                        } else {
+                            encodings[i] = ValueEncoding.compile(type);
+                        }
+                        parts[1] = parts[1].substring(0, typeStart);
+                    }
+                    explodes[i] = getExplode(parts[1]);
+                    if (explodes[i] != NOT_EXPLODED) {
+                        if (explodes[i] == ELEMENT_QUALIFIERS && (encodings[i] != null || compressionNames[i] != null)) {
+                            throw new IllegalArgumentException("Cells of elements have no values to type or compress: " + columnStrings.get(i));
+                        }
+                        parts[1] = stripExplode(parts[1], explodes[i]);
+                        hasExplodedColumns = true;
+                    }
                     qualifiers[i] = parts[1].getBytes();
                 }
             }
+
+            if (tagSeparatorStr != null) {
+                tagSeparatorMatcher = SeparatorMatcher.compile(Bytes.toBytes(tagSeparatorStr));
+                tagTable = new TagDispatchTable(tags);
+            } else {
+                tagSeparatorMatcher = null;
+                tagTable = null;
+            }
+        }
+
+        /**
+         * Returns the index of the / ending the name of the table a column
+         * is written to, or -1 if the column belongs to the main table.
+         */
+        private static int getTableEnd(String column) {
+            int tableEnd = column.indexOf(TABLE_SEPARATOR);
+            int familyEnd = column.indexOf(':');
+            return familyEnd == -1 || tableEnd < familyEnd ? tableEnd : -1;
+        }
+
+        /**
+         * Returns the index of the : preceding the type (or compression) of
+         * the values of a column given as family:qualifier:type (the
+         * qualifier may be empty), or -1 if the column is not typed.
+         */
+        private static int getTypeStart(String qualifier) {
+            int typeStart = qualifier.lastIndexOf(':');
+            if (typeStart == -1) {
+                return -1;
+            }
+            String type = qualifier.substring(typeStart + 1);
+            return ValueEncoding.isEncoding(type) || ValueCompression.isCompression(type) ? typeStart : -1;
+        }
+
+        /**
+         * Returns how the values of a column with the given qualifier (of
+         * family:qualifier) are exploded.
+         */
+        private static int getExplode(String qualifier) {
+            if (qualifier.endsWith(RichImportTsv.ELEMENT_QUALIFIERS_SPEC)) {
+                return ELEMENT_QUALIFIERS;
+            } else if (qualifier.endsWith(RichImportTsv.INDEXED_QUALIFIERS_SPEC)) {
+                return INDEXED_QUALIFIERS;
+            }
+            return NOT_EXPLODED;
+        }
+
+        private static String stripExplode(String qualifier, int explode) {
+            String spec = explode == ELEMENT_QUALIFIERS
+                    ? RichImportTsv.ELEMENT_QUALIFIERS_SPEC : RichImportTsv.INDEXED_QUALIFIERS_SPEC;
+            return qualifier.substring(0, qualifier.length() - spec.length());
+        }
+
+        private int addTable(String tableName) {
+            int table = tableNames.indexOf(tableName);
+            if (table == -1) {
+                if (tableNames.size() == RichImportTsv.MAX_TABLES) {
+                    throw new IllegalArgumentException("At most " + RichImportTsv.MAX_TABLES + " tables can be written to");
+                }
+                tableNames.add(tableName);
+                table = tableNames.size() - 1;
+            }
+            return table;
+        }
+
+        /**
+         * @param indexesSpecification comma separated index tables, each
+         * given as table=column, e.g. titles=m:title. The value of the column
+         * of each record is the row key of the index table, with a cell named
+         * after the row key of the record (in the family of the column).
+         */
+        public void setIndexes(String indexesSpecification) {
+            ArrayList<String> indexStrings = Lists.newArrayList(
+                    Splitter.on(',').trimResults().omitEmptyStrings().split(indexesSpecification));
+            indexColumns = new int[indexStrings.size()];
+            indexTables = new int[indexStrings.size()];
+            for (int i = 0; i < indexStrings.size(); i++) {
+                String str = indexStrings.get(i);
+                int tableEnd = str.indexOf('=');
+                if (tableEnd == -1) {
+                    throw new IllegalArgumentException("No table given for index " + str);
+                }
+                indexTables[i] = addTable(str.substring(0, tableEnd));
+                indexColumns[i] = findColumn(str.substring(tableEnd + 1));
+            }
+        }
+
+        private int findColumn(String column) {
+            int table = 0;
+            String str = column;
+            int tableEnd = getTableEnd(str);
+            if (tableEnd != -1) {
+                table = tableNames.indexOf(str.substring(0, tableEnd));
+                str = str.substring(tableEnd + 1);
+            }
+            String[] parts = str.split(":", 2);
+            byte[] family = parts[0].getBytes();
+            byte[] qualifier = HConstants.EMPTY_BYTE_ARRAY;
+            if (parts.length == 2) {
+                int typeStart = getTypeStart(parts[1]);
+                String name = typeStart == -1 ? parts[1] : parts[1].substring(0, typeStart);
+                int explode = getExplode(name);
+                qualifier = (explode == NOT_EXPLODED ? name : stripExplode(name, explode)).getBytes();
+            }
+            for (int i = 0; i < families.length; i++) {
+                if (isValueColumn(i) && tables[i] == table
+                        && Bytes.equals(families[i], family) && Bytes.equals(qualifiers[i], qualifier)) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Unknown indexed column " + column);
+        }
+
+        /**
+         * Makes the parsed lines return the row keys rewritten by the
+         * transform, which is then owned by this parser.
+         */
+        public void setRowKeyTransform(RowKeyTransform rowKeyTransform) {
+            this.rowKeyTransform = rowKeyTransform;
+        }
+
+        public RowKeyTransform getRowKeyTransform() {
+            return rowKeyTransform;
         }
 
         public int getRowKeyColumnIndex() {
             return rowKeyColumnIndex;
         }
 
+        public int getColumnCount() {
+            return families.length;
+        }
+
+        /**
+         * Returns whether the column is imported as a cell, i.e. it is neither
+         * the row key nor ignored.
+         */
+        public boolean isValueColumn(int idx) {
+            return idx != rowKeyColumnIndex && families[idx] != null;
+        }
+
         public byte[] getFamily(int idx) {
             return families[idx];
         }
@@ -112,68 +458,310 @@ public class RichImportTsv extends ImportTsv {
             return qualifiers[idx];
         }
 
+        /**
+         * Returns whether the values of the column are converted from text
+         * (see encodeValue).
+         */
+        public boolean isTypedColumn(int idx) {
+            return encodings[idx] != null;
+        }
+
+        /**
+         * Encodes the value of the typed column, stored in the given range of
+         * the bytes, into the buffer returned by getValueBuffer(), valid
+         * until the next call.
+         *
+         * @return the length of the encoded value
+         */
+        public int encodeValue(int idx, byte[] bytes, int offset, int length) throws BadTsvLineException {
+            int encodedLength = encodings[idx].encode(bytes, offset, length, valueBuffer);
+            if (encodedLength == ValueEncoding.FAILURE) {
+                throw new BadTsvLineException("Bad " + encodings[idx].getName() + " value");
+            }
+            return encodedLength;
+        }
+
+        public byte[] getValueBuffer() {
+            return valueBuffer;
+        }
+
+        /**
+         * Compiles the compressions of the compressed columns, which compress
+         * the values of at least minSize bytes (by default, 1024), closing
+         * the ones compiled before.
+         *
+         * @throws IllegalArgumentException if a compression is not available
+         */
+        public void setCompressions(Configuration conf, int minSize) {
+            close();
+            for (int i = 0; i < compressionNames.length; i++) {
+                if (compressionNames[i] != null) {
+                    compressions[i] = ValueCompression.compile(compressionNames[i], conf, minSize);
+                }
+            }
+        }
+
+        /**
+         * Releases the compressors of the compressed columns.
+         */
+        public void close() {
+            for (int i = 0; i < compressions.length; i++) {
+                if (compressions[i] != null) {
+                    compressions[i].close();
+                    compressions[i] = null;
+                }
+            }
+        }
+
+        public boolean isCompressedColumn(int idx) {
+            return compressionNames[idx] != null;
+        }
+
+        /**
+         * Writes the value of the compressed column, stored in the given
+         * range of the bytes, with the header of ValueCompression into the
+         * buffer returned by getCompressionBuffer(idx), valid until the next
+         * call. The compressions must have been set.
+         *
+         * @return the length of the written value
+         */
+        public int compressValue(int idx, byte[] bytes, int offset, int length) {
+            return compressions[idx].compress(bytes, offset, length);
+        }
+
+        public byte[] getCompressionBuffer(int idx) {
+            return compressions[idx].getBuffer();
+        }
+
+        /**
+         * Sets the separator of the elements of the exploded columns (a space
+         * by default).
+         */
+        public void setExplodeSeparator(String explodeSeparatorStr) {
+            explodeSeparatorMatcher = SeparatorMatcher.compile(Bytes.toBytes(explodeSeparatorStr));
+        }
+
+        public SeparatorMatcher getExplodeSeparatorMatcher() {
+            return explodeSeparatorMatcher;
+        }
+
+        public boolean hasExplodedColumns() {
+            return hasExplodedColumns;
+        }
+
+        /**
+         * Returns how the value of the column is exploded into many cells:
+         * NOT_EXPLODED, ELEMENT_QUALIFIERS or INDEXED_QUALIFIERS.
+         */
+        public int getExplode(int idx) {
+            return explodes[idx];
+        }
+
+        /**
+         * Builds the qualifier of an element of the column exploded into
+         * ELEMENT_QUALIFIERS, i.e. its qualifier followed by the element
+         * stored in the given range of the bytes, in the buffer returned by
+         * getQualifierBuffer(), valid until the next call.
+         *
+         * @return the length of the qualifier
+         */
+        public int buildElementQualifier(int idx, byte[] bytes, int offset, int length) {
+            int prefixLength = qualifiers[idx].length;
+            ensureQualifierBuffer(prefixLength + length);
+            System.arraycopy(qualifiers[idx], 0, qualifierBuffer, 0, prefixLength);
+            System.arraycopy(bytes, offset, qualifierBuffer, prefixLength, length);
+            return prefixLength + length;
+        }
+
+        /**
+         * Builds the qualifier of an element of the column exploded into
+         * INDEXED_QUALIFIERS, i.e. its qualifier followed by the decimal index
+         * of the element, in the buffer returned by getQualifierBuffer().
+         *
+         * @return the length of the qualifier
+         */
+        public int buildIndexedQualifier(int idx, int index) {
+            int prefixLength = qualifiers[idx].length;
+            int digits = 1;
+            for (int n = index; n >= 10; n /= 10) {
+                digits++;
+            }
+            ensureQualifierBuffer(prefixLength + digits);
+            System.arraycopy(qualifiers[idx], 0, qualifierBuffer, 0, prefixLength);
+            for (int i = prefixLength + digits - 1, n = index; i >= prefixLength; i--, n /= 10) {
+                qualifierBuffer[i] = (byte) ('0' + n % 10);
+            }
+            return prefixLength + digits;
+        }
+
+        private void ensureQualifierBuffer(int length) {
+            if (qualifierBuffer.length < length) {
+                qualifierBuffer = new byte[Math.max(length, 2 * qualifierBuffer.length)];
+            }
+        }
+
+        public byte[] getQualifierBuffer() {
+            return qualifierBuffer;
+        }
+
+        /**
+         * Returns the index of the table the column is written to.
+         */
+        public int getTable(int idx) {
+            return tables[idx];
+        }
+
+        public int getTableCount() {
+            return tableNames.size();
+        }
+
+        /**
+         * Returns the name of the table, or null for the main one (0).
+         */
+        public String getTableName(int table) {
+            return tableNames.get(table);
+        }
+
+        public int getIndexCount() {
+            return indexColumns.length;
+        }
+
+        public int getIndexColumn(int index) {
+            return indexColumns[index];
+        }
+
+        public int getIndexTable(int index) {
+            return indexTables[index];
+        }
+
+        /**
+         * Parses the record into the ParsedLine owned by this parser. No
+         * objects are allocated for well-formed records, so the returned
+         * ParsedLine is only valid until the next call to parse. Scanning
+         * stops after the last column which is not ignored, so the remaining
+         * (ignored) columns are neither delimited nor counted.
+         */
         public ParsedLine parse(byte[] lineBytes, int length) throws BadTsvLineException {
+            if (tagTable != null) {
+                return parseTagged(lineBytes, length);
+            }
+
             // Enumerate separator offsets
-            ArrayList<Integer> tabOffsets = new ArrayList<Integer>(families.length);
+            int columnCount = 0;
             int i = 0;
-            while (i < length) {
-                i = KMPMatcher.indexOf(lineBytes, i, separatorBytes, lineBytes.length);
-                if (i == KMPMatcher.FAILURE || i >= length) {
+            columnStarts[0] = 0;
+            while (i < length && columnCount <= lastNeededColumnIndex) {
+                int separatorStart = separatorMatcher.indexOf(lineBytes, i, length);
+                if (separatorStart == SeparatorMatcher.FAILURE) {
                     break;
-                } else {
-                    tabOffsets.add(i);
-                    i += separatorBytes.length;
                 }
+                if (columnCount + 1 == families.length) {
+                    throw new BadTsvLineException("Excessive columns");
+                }
+                columnEnds[columnCount++] = separatorStart;
+                i = separatorStart + separatorMatcher.getMatchLength();
+                columnStarts[columnCount] = i;
             }
 
-            if (tabOffsets.isEmpty()) {
+            if (columnCount == 0) {
                 throw new BadTsvLineException("No delimiter");
             }
 
-            tabOffsets.add(length);
+            columnEnds[columnCount++] = length;
 
-            if (tabOffsets.size() > families.length) {
-                throw new BadTsvLineException("Excessive columns");
-            } else if (tabOffsets.size() <= getRowKeyColumnIndex()) {
+            if (columnCount <= getRowKeyColumnIndex()) {
                 throw new BadTsvLineException("No row key");
             }
-            return new ParsedLine(tabOffsets, lineBytes, separatorBytes.length);
+            parsedLine.reset(lineBytes, columnCount);
+            return parsedLine;
+        }
+
+        /**
+         * Parses a record of tagged fields. The tag of each field is looked
+         * up in the dispatch table, so finding the column of a field costs
+         * the same whatever the number of columns is.
+         */
+        private ParsedLine parseTagged(byte[] lineBytes, int length) throws BadTsvLineException {
+            Arrays.fill(columnStarts, -1);
+            int i = 0;
+            while (true) {
+                int separatorStart = separatorMatcher.indexOf(lineBytes, i, length);
+                int fieldEnd = separatorStart == SeparatorMatcher.FAILURE ? length : separatorStart;
+                int tagEnd = tagSeparatorMatcher.indexOf(lineBytes, i, fieldEnd);
+                int valueStart;
+                if (tagEnd == SeparatorMatcher.FAILURE) {
+                    // a field without a value
+                    tagEnd = fieldEnd;
+                    valueStart = fieldEnd;
+                } else {
+                    valueStart = tagEnd + tagSeparatorMatcher.getMatchLength();
+                }
+
+                int column = tagTable.get(lineBytes, i, tagEnd - i);
+                if (column != TagDispatchTable.NOT_FOUND) {
+                    columnStarts[column] = valueStart;
+                    columnEnds[column] = fieldEnd;
+                }
+                if (separatorStart == SeparatorMatcher.FAILURE) {
+                    break;
+                }
+                i = separatorStart + separatorMatcher.getMatchLength();
+            }
+
+            if (columnStarts[rowKeyColumnIndex] == -1) {
+                throw new BadTsvLineException("No row key");
+            }
+            parsedLine.reset(lineBytes, families.length);
+            return parsedLine;
         }
 
         class ParsedLine {
 
-            private final ArrayList<Integer> tabOffsets;
             private byte[] lineBytes;
-            private int separatorSize;
+            private int columnCount;
 
-            ParsedLine(ArrayList<Integer> tabOffsets, byte[] lineBytes, int separatorSize) {
-                this.tabOffsets = tabOffsets;
+            void reset(byte[] lineBytes, int columnCount) {
                 this.lineBytes = lineBytes;
-                this.separatorSize = separatorSize;
+                this.columnCount = columnCount;
+                if (rowKeyTransform != null) {
+                    rowKeyTransform.transform(lineBytes, getColumnOffset(rowKeyColumnIndex), getColumnLength(rowKeyColumnIndex));
+                }
+            }
+
+            /**
+             * Returns the bytes holding the row key: the line or, if the row
+             * keys are transformed, the buffer of the transform.
+             */
+            public byte[] getRowKeyBytes() {
+                return rowKeyTransform != null ? rowKeyTransform.getBuffer() : lineBytes;
             }
 
             public int getRowKeyOffset() {
-                return getColumnOffset(rowKeyColumnIndex);
+                return rowKeyTransform != null ? 0 : getColumnOffset(rowKeyColumnIndex);
             }
 
             public int getRowKeyLength() {
-                return getColumnLength(rowKeyColumnIndex);
+                return rowKeyTransform != null ? rowKeyTransform.getLength() : getColumnLength(rowKeyColumnIndex);
             }
 
             public int getColumnOffset(int idx) {
-                if (idx > 0) {
-                    return tabOffsets.get(idx - 1) + separatorSize;
-                } else {
-                    return 0;
-                }
+                return columnStarts[idx];
             }
 
             public int getColumnLength(int idx) {
-                return tabOffsets.get(idx) - getColumnOffset(idx);
+                return columnEnds[idx] - columnStarts[idx];
             }
 
             public int getColumnCount() {
-                return tabOffsets.size();
+                return columnCount;
+            }
+
+            /**
+             * Returns whether the record has the column, which may be missing
+             * at the end of a record or, in the tagged format, anywhere.
+             */
+            public boolean hasColumn(int idx) {
+                return idx < columnCount && columnStarts[idx] != -1;
             }
 
             public byte[] getLineBytes() {
@@ -200,6 +788,18 @@ public class RichImportTsv extends ImportTsv {
      */
     public static Job createSubmittableJob(Configuration conf, String[] args) throws IOException, ClassNotFoundException {
 
+        // Creating the table pre-split on sampled row keys, if asked to and
+        // it does not exist (before ImportTsv encodes the separator)
+        if (conf.getBoolean(PRESPLIT_CONF_KEY, false)) {
+            createPresplitTable(conf, args[0], new Path(args[1]));
+        }
+
+        // Creating the other tables columns are written to, if any
+        String[] tableNames = getTableNames(conf, args[0]);
+        for (int table = 1; table < tableNames.length; table++) {
+            createTable(conf, tableNames[table], table);
+        }
+
         Job job = ImportTsv.createSubmittableJob(conf, args);
 
         // See if a non-default InputFormat was set
@@ -207,12 +807,13 @@ public class RichImportTsv extends ImportTsv {
         Class inputFormatClass = inputFormatClassName != null ? Class.forName(inputFormatClassName) : DEFAULT_INPUT_FORMAT;
         job.setInputFormatClass(inputFormatClass);
 
-        // Setting record separator
-        String recordSeparator = conf.get(RECORD_SEPARATOR_CONF_KEY);
-        if (recordSeparator == null) {
-            recordSeparator = DEFAULT_RECORD_SEPARATOR;
+        configureRecordReader(conf, job.getConfiguration());
+
+        // Setting the size of splits built by CombineSeparatorInputFormat, if any
+        String combineMaxSplitSize = conf.get(COMBINE_MAX_SPLIT_SIZE_CONF_KEY);
+        if (combineMaxSplitSize != null) {
+            job.getConfiguration().set(CombineSeparatorInputFormat.MAX_SPLIT_SIZE_CONF_KEY, combineMaxSplitSize);
         }
-        job.getConfiguration().set(SeparatorRecordReader.RECORD_SEPARATOR_CONF_KEY, recordSeparator);
 
         // Setting custom mapper, if any
         String mapperClassName = conf.get(MAPPER_CONF_KEY);
@@ -220,9 +821,270 @@ public class RichImportTsv extends ImportTsv {
             job.setMapperClass(DEFAULT_MAPPER);
         }
 
+        // Shuffling KeyValues instead of Puts, when generating HFiles
+        if (conf.get(BULK_OUTPUT_CONF_KEY) != null) {
+            if (tableNames.length > 1) {
+                configureMultiTableKeyValueOutput(job, conf, tableNames);
+            } else {
+                configureKeyValueOutput(job, conf, args[0]);
+            }
+        } else {
+            // Setting the client write buffer, used both by TableOutputFormat and AsyncPutWriter
+            String writeBuffer = conf.get(PUT_WRITE_BUFFER_CONF_KEY);
+            if (writeBuffer != null) {
+                job.getConfiguration().set("hbase.client.write.buffer", writeBuffer);
+            }
+            // Puts are sent by the mappers themselves
+            if (conf.getBoolean(PUT_ASYNC_CONF_KEY, false)) {
+                job.setOutputFormatClass(NullOutputFormat.class);
+            } else if (tableNames.length > 1) {
+                job.setOutputFormatClass(MultiTableOutputFormat.class);
+            }
+        }
+
+        // Writing bad lines to a reject directory instead of the task logs, if given
+        String rejectDir = conf.get(REJECT_DIR_CONF_KEY);
+        if (rejectDir != null) {
+            Path rejectPath = new Path(rejectDir);
+            rejectPath = rejectPath.getFileSystem(conf).makeQualified(rejectPath);
+            job.getConfiguration().set(RejectOutputFormat.DIR_CONF_KEY, rejectPath.toString());
+            MultipleOutputs.addNamedOutput(job, REJECTS_NAMED_OUTPUT, RejectOutputFormat.class, Text.class, Text.class);
+            // the rejects are committed by the committer of the job
+            RejectCommittingOutputFormat.wrapOutputFormat(job);
+            try {
+                new RejectOutputFormat().checkOutputSpecs(job);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
         return job;
     }
 
+    /**
+     * Passes the options of SeparatorInputFormat and SeparatorRecordReader
+     * given as importtsv.* options to their own configuration keys.
+     */
+    static void configureRecordReader(Configuration conf, Configuration readerConf) {
+        // Setting record separator
+        String recordSeparator = conf.get(RECORD_SEPARATOR_CONF_KEY);
+        if (recordSeparator == null) {
+            recordSeparator = DEFAULT_RECORD_SEPARATOR;
+        }
+        readerConf.set(SeparatorRecordReader.RECORD_SEPARATOR_CONF_KEY, recordSeparator);
+        String recordSeparators = conf.get(RECORD_SEPARATORS_CONF_KEY);
+        if (recordSeparators != null) {
+            readerConf.set(SeparatorRecordReader.RECORD_SEPARATORS_CONF_KEY, recordSeparators);
+        }
+
+        // Setting size of the chunks read by SeparatorRecordReader, if any
+        String recordBufferSize = conf.get(RECORD_BUFFER_SIZE_CONF_KEY);
+        if (recordBufferSize != null) {
+            readerConf.set(SeparatorRecordReader.BUFFER_SIZE_CONF_KEY, recordBufferSize);
+        }
+
+        // Skipping records longer than the given length, if any
+        String recordMaxLength = conf.get(RECORD_MAX_LENGTH_CONF_KEY);
+        if (recordMaxLength != null) {
+            readerConf.set(SeparatorRecordReader.MAX_LENGTH_CONF_KEY, recordMaxLength);
+        }
+        if (conf.getBoolean(RECORD_MAX_LENGTH_REPORT_CONF_KEY, false)) {
+            readerConf.setBoolean(SeparatorRecordReader.REPORT_OVERSIZE_CONF_KEY, true);
+        }
+
+        // Disabling the use of record indexes written by SeparatorIndexer, if requested
+        if (!conf.getBoolean(RECORD_INDEX_CONF_KEY, true)) {
+            readerConf.setBoolean(SeparatorInputFormat.USE_INDEX_CONF_KEY, false);
+        }
+
+        // Measuring the time spent reading the input, if metrics are collected
+        if (conf.getBoolean(METRICS_CONF_KEY, false)) {
+            readerConf.setBoolean(SeparatorRecordReader.TIMING_CONF_KEY, true);
+        }
+    }
+
+    /**
+     * Creates the parser of the records described by the importtsv.* options,
+     * with the given (decoded) field separator, unless alternative field
+     * separators are given.
+     */
+    static RichTsvParser createParser(Configuration conf, String separator) {
+        String tagSeparator = null;
+        if (conf.getBoolean(TAGGED_CONF_KEY, false)) {
+            tagSeparator = conf.get(TAG_SEPARATOR_CONF_KEY, DEFAULT_TAG_SEPARATOR);
+        }
+        String separators = conf.get(SEPARATORS_CONF_KEY);
+        byte[][] fieldSeparators = separators != null
+                ? SeparatorMatcher.parseAlternatives(separators) : new byte[][]{Bytes.toBytes(separator)};
+        RichTsvParser parser = new RichTsvParser(conf.get(COLUMNS_CONF_KEY), fieldSeparators, tagSeparator);
+        String indexes = conf.get(INDEXES_CONF_KEY);
+        if (indexes != null) {
+            parser.setIndexes(indexes);
+        }
+        parser.setExplodeSeparator(conf.get(EXPLODE_SEPARATOR_CONF_KEY, DEFAULT_EXPLODE_SEPARATOR));
+        parser.setRowKeyTransform(createRowKeyTransform(conf));
+        return parser;
+    }
+
+    /**
+     * Creates the transform of the row keys given as importtsv.rowkey.*
+     * options, or returns null if the keys are imported as they are.
+     */
+    static RowKeyTransform createRowKeyTransform(Configuration conf) {
+        String transform = conf.get(ROWKEY_TRANSFORM_CONF_KEY);
+        if (transform == null) {
+            return null;
+        }
+        return RowKeyTransform.compile(transform, conf.getInt(ROWKEY_BUCKETS_CONF_KEY, DEFAULT_ROWKEY_BUCKETS),
+                conf.getInt(ROWKEY_HASH_WIDTH_CONF_KEY, DEFAULT_ROWKEY_HASH_WIDTH));
+    }
+
+    /**
+     * Returns the names of the tables written to: the main one followed by
+     * the ones named in the columns and indexes.
+     */
+    static String[] getTableNames(Configuration conf, String tableName) {
+        RichTsvParser parser = createParser(conf, conf.get(SEPARATOR_CONF_KEY, DEFAULT_SEPARATOR));
+        String[] tableNames = new String[parser.getTableCount()];
+        tableNames[0] = tableName;
+        for (int table = 1; table < tableNames.length; table++) {
+            tableNames[table] = parser.getTableName(table);
+        }
+        return tableNames;
+    }
+
+    /**
+     * Creates one of the other tables, if it does not exist, with the
+     * families of the columns and indexes written to it, as a single region
+     * (the sampled row keys are those of the main table).
+     */
+    private static void createTable(Configuration conf, String tableName, int table) throws IOException {
+        HBaseAdmin admin = new HBaseAdmin(conf);
+        try {
+            if (admin.tableExists(tableName)) {
+                return;
+            }
+
+            RichTsvParser parser = createParser(conf, conf.get(SEPARATOR_CONF_KEY, DEFAULT_SEPARATOR));
+            HTableDescriptor htd = new HTableDescriptor(tableName);
+            for (int i = 0; i < parser.getColumnCount(); i++) {
+                if (parser.isValueColumn(i) && parser.getTable(i) == table && !htd.hasFamily(parser.getFamily(i))) {
+                    htd.addFamily(new HColumnDescriptor(parser.getFamily(i)));
+                }
+            }
+            for (int index = 0; index < parser.getIndexCount(); index++) {
+                byte[] family = parser.getFamily(parser.getIndexColumn(index));
+                if (parser.getIndexTable(index) == table && !htd.hasFamily(family)) {
+                    htd.addFamily(new HColumnDescriptor(family));
+                }
+            }
+            LOG.info("Creating table " + tableName);
+            admin.createTable(htd);
+        } finally {
+            admin.close();
+        }
+    }
+
+    /**
+     * Creates the target table, if it does not exist, with the regions split
+     * at the row keys chosen by RowKeySampler and, if the row keys are
+     * salted or hashed, at the boundaries of their prefixes.
+     */
+    private static void createPresplitTable(Configuration conf, String tableName, Path inputDir) throws IOException {
+        HBaseAdmin admin = new HBaseAdmin(conf);
+        try {
+            if (admin.tableExists(tableName)) {
+                return;
+            }
+
+            RichTsvParser parser = createParser(conf, conf.get(SEPARATOR_CONF_KEY, DEFAULT_SEPARATOR));
+            byte[][] splitKeys = new RowKeySampler(conf, parser).getSplitKeys(inputDir);
+            if (parser.getRowKeyTransform() != null) {
+                TreeSet<byte[]> keys = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+                keys.addAll(Arrays.asList(splitKeys));
+                keys.addAll(Arrays.asList(parser.getRowKeyTransform().getSplitKeys()));
+                splitKeys = keys.toArray(new byte[keys.size()][]);
+            }
+
+            HTableDescriptor htd = new HTableDescriptor(tableName);
+            for (int i = 0; i < parser.getColumnCount(); i++) {
+                if (parser.isValueColumn(i) && parser.getTable(i) == 0 && !htd.hasFamily(parser.getFamily(i))) {
+                    htd.addFamily(new HColumnDescriptor(parser.getFamily(i)));
+                }
+            }
+            LOG.info("Creating table " + tableName + " with " + (splitKeys.length + 1) + " regions");
+            if (splitKeys.length == 0) {
+                admin.createTable(htd);
+            } else {
+                admin.createTable(htd, splitKeys);
+            }
+        } finally {
+            admin.close();
+        }
+    }
+
+    /**
+     * Replaces the shuffle of Puts set up by
+     * HFileOutputFormat.configureIncrementalLoad. By default, KeyValues are
+     * sorted by the shuffle and streamed by the reducers. If the input is
+     * sorted, HFiles are written by the mappers and there is no shuffle.
+     */
+    private static void configureKeyValueOutput(Job job, Configuration conf, String tableName) throws IOException {
+        Configuration jobConf = job.getConfiguration();
+        HTable table = new HTable(conf, tableName);
+        try {
+            RegionStartKeys.set(jobConf, table.getStartKeys());
+        } finally {
+            table.close();
+        }
+        jobConf.setBoolean(RichTsvImporterMapper.KEYVALUE_OUTPUT_CONF_KEY, true);
+        job.setMapOutputKeyClass(ImmutableBytesWritable.class);
+        job.setMapOutputValueClass(KeyValue.class);
+
+        if (conf.getBoolean(BULK_PRESORTED_CONF_KEY, false)) {
+            jobConf.setBoolean(PresortedHFileOutputFormat.CHECK_ORDER_CONF_KEY, conf.getBoolean(BULK_PRESORTED_CHECK_CONF_KEY, true));
+            job.setOutputFormatClass(PresortedHFileOutputFormat.class);
+            job.setOutputKeyClass(ImmutableBytesWritable.class);
+            job.setOutputValueClass(KeyValue.class);
+            job.setNumReduceTasks(0);
+        } else if (conf.getBoolean(BULK_STREAMING_CONF_KEY, true)) {
+            jobConf.setBoolean(RichTsvImporterMapper.KEYVALUE_SORT_KEY_CONF_KEY, true);
+            job.setPartitionerClass(RegionPartitioner.class);
+            job.setSortComparatorClass(KeyValueKeyComparator.class);
+            job.setReducerClass(StreamingKeyValueReducer.class);
+        } else {
+            job.setReducerClass(KeyValueSortReducer.class);
+        }
+    }
+
+    /**
+     * Shuffles the KeyValues of many tables at once, each prefixed with the
+     * index of its table, to reducers of the regions of each table, which
+     * write the HFiles of each table to a subdirectory of the bulk output
+     * directory named after it.
+     */
+    private static void configureMultiTableKeyValueOutput(Job job, Configuration conf, String[] tableNames) throws IOException {
+        Configuration jobConf = job.getConfiguration();
+        for (String tableName : tableNames) {
+            HTable table = new HTable(conf, tableName);
+            try {
+                RegionStartKeys.set(jobConf, tableName, table.getStartKeys());
+            } finally {
+                table.close();
+            }
+        }
+        MultiTableHFileOutputFormat.setTables(jobConf, tableNames);
+        jobConf.setBoolean(RichTsvImporterMapper.KEYVALUE_OUTPUT_CONF_KEY, true);
+        jobConf.setBoolean(RichTsvImporterMapper.KEYVALUE_SORT_KEY_CONF_KEY, true);
+        job.setMapOutputKeyClass(ImmutableBytesWritable.class);
+        job.setMapOutputValueClass(KeyValue.class);
+        job.setPartitionerClass(TableRegionPartitioner.class);
+        job.setSortComparatorClass(TableKeyValueKeyComparator.class);
+        job.setReducerClass(TableKeyValueReducer.class);
+        job.setOutputFormatClass(MultiTableHFileOutputFormat.class);
+        job.setNumReduceTasks(TableRegionPartitioner.getPartitionCount(jobConf));
+    }
+
     /*
      * @param errorMsg Error message. Can be null.
      */
@@ -241,21 +1103,96 @@ public class RichImportTsv extends ImportTsv {
                 + "column name HBASE_ROW_KEY is used to designate that this column should be used\n"
                 + "as the row key for each imported record. You must specify exactly one column\n"
                 + "to be the row key, and you must specify a column name for every column that exists in the\n"
-                + "input data.\n"
+                + "input data. Columns named " + IGNORED_COLUMN_SPEC + " are not imported, and the input is not scanned\n"
+                + "past the last column which is not ignored (so ignored trailing columns cost nothing).\n"
+                + "\n"
+                + "Columns given as family:qualifier:type are stored in the binary encoding of Bytes.toBytes for the type:\n"
+                + "int, long, short, float, double, boolean (true, false, 1 or 0) or " + ValueEncoding.ISO8601_LONG + " (an ISO 8601\n"
+                + "date and time, UTC unless a zone is given, as milliseconds since the epoch), e.g. m:minor:int.\n"
+                + "Values which can not be converted make the line bad, empty ones are not stored.\n"
+                + "\n"
+                + "The values of columns given as family:prefix" + ELEMENT_QUALIFIERS_SPEC + " are lists exploded into a cell per element,\n"
+                + "named after the prefix (which may be empty) and the element, with an empty value. The values of\n"
+                + "columns given as family:prefix" + INDEXED_QUALIFIERS_SPEC + " (or family:prefix" + INDEXED_QUALIFIERS_SPEC + ":type) are exploded into cells named after\n"
+                + "the prefix and the index of the element (0, 1, ...), with the element as the value. Empty elements are skipped.\n"
+                + "  -D" + EXPLODE_SEPARATOR_CONF_KEY + "=, - separate the elements on commas instead of spaces\n"
+                + "\n"
+                + "Columns given as family:qualifier:compression are stored compressed with " + ValueCompression.DEFLATE + ", " + ValueCompression.SNAPPY + " or " + ValueCompression.LZ4 + "\n"
+                + "(the last two if the native Hadoop libraries are loaded), e.g. t:text:" + ValueCompression.SNAPPY + ". Each value starts with a header\n"
+                + "telling whether (and how) it is compressed; values which are short or do not shrink are stored as they are.\n"
+                + "  -D" + COMPRESS_MIN_SIZE_CONF_KEY + "=" + DEFAULT_COMPRESS_MIN_SIZE + " - size in bytes of the shortest value compressed\n"
+                + "\n"
+                + "Columns given as table" + TABLE_SEPARATOR + "family:qualifier are written to the named table, under the same row key.\n"
+                + "To write an index table, with the values of a column as the row keys pointing to the rows\n"
+                + "of the records (a cell named after the row key in the family of the column), pass:\n"
+                + "  -D" + INDEXES_CONF_KEY + "=table=family:qualifier,... - one or more index tables\n"
+                + "The tables which do not exist are created with a single region. With bulk output, the HFiles\n"
+                + "of each table are written to a subdirectory of the output directory named after the table.\n"
                 + "\n"
                 + "By default importtsv will load data directly into HBase. To instead generate\n"
                 + "HFiles of data to prepare for a bulk data load, pass the option:\n"
                 + "  -D" + BULK_OUTPUT_CONF_KEY + "=/path/for/output\n"
                 + "  Note: if you do not use this option, then the target table must already exist in HBase\n"
+                + "To create the target table, if it does not exist, with regions split at row keys sampled from\n"
+                + "the input (so that each region gets a similar amount of data), pass:\n"
+                + "  -D" + PRESPLIT_CONF_KEY + "=true\n"
+                + "The input is only sampled when the table is created. The sampling can be tuned with:\n"
+                + "  -D" + RowKeySampler.FRACTION_CONF_KEY + "=0.01 - fraction of each split to read\n"
+                + "  -D" + RowKeySampler.MAX_KEYS_CONF_KEY + "=1000000 - maximal number of row keys kept in memory\n"
+                + "  -D" + RowKeySampler.REGION_SIZE_CONF_KEY + "=bytes - target size of a region (default half of hbase.hregion.max.filesize)\n"
+                + "To spread writes of increasing row keys (e.g. ids or timestamps) over the regions, pass:\n"
+                + "  -D" + ROWKEY_TRANSFORM_CONF_KEY + "=salt - prefix each key with one of n buckets chosen by its hash\n"
+                + "  -D" + ROWKEY_TRANSFORM_CONF_KEY + "=reverse - reverse the bytes of each key\n"
+                + "  -D" + ROWKEY_TRANSFORM_CONF_KEY + "=hash - prefix each key with its hash\n"
+                + "  -D" + ROWKEY_BUCKETS_CONF_KEY + "=" + DEFAULT_ROWKEY_BUCKETS + " - number of salt buckets (or of regions the prefixes of hash are split into)\n"
+                + "  -D" + ROWKEY_HASH_WIDTH_CONF_KEY + "=" + DEFAULT_ROWKEY_HASH_WIDTH + " - number of bytes of the hash prefix\n"
+                + "If the input is sorted by the row key (within each split), the HFiles can be written\n"
+                + "directly by the mappers, without sorting and shuffling the data, by passing:\n"
+                + "  -D" + BULK_PRESORTED_CONF_KEY + "=true\n"
+                + "  -D" + BULK_PRESORTED_CHECK_CONF_KEY + "=false - (optional) do not verify that the input is sorted\n"
+                + "Otherwise, KeyValues are sorted by the shuffle and written one by one. To collect\n"
+                + "the KeyValues of each row in the reducer memory (as KeyValueSortReducer does) instead, pass:\n"
+                + "  -D" + BULK_STREAMING_CONF_KEY + "=false\n"
+                + "\n"
+                + "Puts are sent to HBase in batches of the client write buffer size. To group them by region\n"
+                + "server and send them in the background (so that the mappers do not wait for each batch), pass:\n"
+                + "  -D" + PUT_ASYNC_CONF_KEY + "=true\n"
+                + "  -D" + PUT_FLUSH_THREADS_CONF_KEY + "=" + DEFAULT_PUT_FLUSH_THREADS + " - (optional) number of threads sending the batches\n"
+                + "  -D" + PUT_WRITE_BUFFER_CONF_KEY + "=" + DEFAULT_PUT_WRITE_BUFFER + " - size in bytes of a batch (also without the above option)\n"
+                + "  -D" + PUT_SKIP_WAL_CONF_KEY + "=true - do not write the Puts to the WAL (the data is lost if a region server fails)\n"
+                + "\n"
+                + "Bad lines are printed to the task logs. To write them (as they were read) to a directory instead,\n"
+                + "from which they can be imported again once fixed, pass:\n"
+                + "  -D" + REJECT_DIR_CONF_KEY + "=/path/for/rejects - the reasons are written to its _info subdirectory\n"
+                + "  -D" + REJECT_MAX_CONF_KEY + "=1000 - (optional) maximal number of bad lines written by each mapper\n"
+                + "  -D" + REJECT_SAMPLE_INTERVAL_CONF_KEY + "=10 - (optional) write every 10th bad line only\n"
                 + "\n"
                 + "Other options that may be specified with -D include:\n"
                 + "  -D" + SKIP_LINES_CONF_KEY + "=false - fail if encountering an invalid line\n"
                 + "  -D" + SEPARATOR_CONF_KEY + "=| - eg separate on pipes instead of tabs\n"
+                + "  -D" + SEPARATORS_CONF_KEY + "=$'\\t,|' - separate on tabs or pipes (a comma separated list, \\, and \\\\ escape , and \\)\n"
                 + "  -D" + INPUT_FORMAT_CONF_KEY + "=my.InputFormat - A user-defined InputFormat to use instead of " + DEFAULT_INPUT_FORMAT.getName() + "\n"
+                + "  -D" + INPUT_FORMAT_CONF_KEY + "=" + CombineSeparatorInputFormat.class.getName() + " - read many small files in each mapper\n"
+                + "  -D" + COMBINE_MAX_SPLIT_SIZE_CONF_KEY + "=268435456 - maximal size in bytes of the input of each mapper, when the above is used\n"
                 + "  -D" + RECORD_SEPARATOR_CONF_KEY + "=# - eg separate records on # instead of new lines\n"
+                + "  -D" + RECORD_SEPARATORS_CONF_KEY + "=$'\\n\\n,\\r\\n\\r\\n' - separate records on any of the listed separators\n"
+                + "  -D" + RECORD_BUFFER_SIZE_CONF_KEY + "=4194304 - size in bytes of the chunks read from the input at once (default 1MB)\n"
+                + "  -D" + RECORD_MAX_LENGTH_CONF_KEY + "=16777216 - skip (and count) records longer than 16MB instead of buffering them\n"
+                + "  -D" + RECORD_MAX_LENGTH_REPORT_CONF_KEY + "=true - log the offsets of the first skipped records of each split\n"
+                + "  -D" + RECORD_INDEX_CONF_KEY + "=false - ignore record indexes written by " + SeparatorIndexer.NAME + "\n"
+                + "  -D" + TAGGED_CONF_KEY + "=true - each field starts with a tag, columns are given as TAG=family:qualifier\n"
+                + "  -D" + TAG_SEPARATOR_CONF_KEY + "=: - the tag ends at : instead of a space, when the above is used\n"
                 + "  -D" + SKIP_UNTIL_SEPARATOR_CONF_KEY + "= - (optional) skip part of the field and put remaining part into HBase cell" + "\n"
                 + "  -D" + TIMESTAMP_CONF_KEY + "=currentTimeAsLong - use the specified timestamp for the import\n"
-                + "  -D" + MAPPER_CONF_KEY + "=my.Mapper - A user-defined Mapper to use instead of " + DEFAULT_MAPPER.getName() + "\n";
+                + "  -D" + MAPPER_CONF_KEY + "=my.Mapper - A user-defined Mapper to use instead of " + DEFAULT_MAPPER.getName() + "\n"
+                + "  -D" + COALESCE_CONF_KEY + "=true - merge the records of the same row in the mapper before writing them\n"
+                + "  -D" + COALESCE_VERSIONS_CONF_KEY + "=1 - number of the most recent values of each column kept (a value replaces the one of the same timestamp)\n"
+                + "  -D" + COALESCE_SHIFT_TIMESTAMPS_CONF_KEY + "=true - write the older values with the timestamp decreased by one per version\n"
+                + "  -D" + COALESCE_MAX_BYTES_CONF_KEY + "=" + DEFAULT_COALESCE_MAX_BYTES + " - size of the rows buffered by each mapper, the least recently used ones are written first\n"
+                + "  -D" + MAPPER_THREADS_CONF_KEY + "=4 - parse the records of each mapper on 4 threads\n"
+                + "  -D" + MAPPER_QUEUE_SIZE_CONF_KEY + "=16 - maximal number of records being parsed at once (default 4 per thread)\n"
+                + "  -D" + METRICS_CONF_KEY + "=true - publish the time spent in each stage, sizes of records and families and bad lines by reason as counters\n"
+                + "  -D" + METRICS_SAMPLE_INTERVAL_CONF_KEY + "=" + ImportMetrics.DEFAULT_SAMPLE_INTERVAL + " - time the stages of every n-th record only\n";
 
         System.err.println(usage);
     }
@@ -275,8 +1212,10 @@ public class RichImportTsv extends ImportTsv {
          args = new String[]{
          "-D" + SEPARATOR_CONF_KEY + "=\n",
          "-D" + RECORD_SEPARATOR_CONF_KEY + "=\n\n",
-         "-D" + SKIP_UNTIL_SEPARATOR_CONF_KEY + "= ",
-         "-D" + COLUMNS_CONF_KEY + "=HBASE_ROW_KEY,m:cat,m:im,m:main,m:talk,m:us,m:us_talk,m:oth,m:exter,m:templ,m:comm,m:minor,m:textdata",
+         "-D" + TAGGED_CONF_KEY + "=true",
+         "-D" + TAG_SEPARATOR_CONF_KEY + "= ",
+         "-D" + COLUMNS_CONF_KEY + "=REVISION=HBASE_ROW_KEY,CATEGORY=m:cat,IMAGE=m:im,MAIN=m:main,TALK=m:talk,USER=m:us,USER_TALK=m:us_talk,"
+         + "OTHER=m:oth,EXTERNAL=m:exter,TEMPLATE=m:templ,COMMENT=m:comm,MINOR=m:minor,TEXTDATA=m:textdata",
          tableInitName,
          inputFileName
          };
@@ -302,6 +1241,13 @@ public class RichImportTsv extends ImportTsv {
             System.exit(-1);
         }
 
+        // In the tagged format, columns are given as TAG=column
+        if (conf.getBoolean(TAGGED_CONF_KEY, false)) {
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = columns[i].substring(columns[i].indexOf('=') + 1);
+            }
+        }
+
         // Make sure they specify exactly one column as the row key
         int rowkeysFound = 0;
         for (String col : columns) {
@@ -315,11 +1261,52 @@ public class RichImportTsv extends ImportTsv {
         }
 
         // Make sure one or more columns are specified
-        if (columns.length < 2) {
+        int ignoredFound = 0;
+        for (String col : columns) {
+            if (col.equals(IGNORED_COLUMN_SPEC)) {
+                ignoredFound++;
+            }
+        }
+        if (columns.length - ignoredFound < 2) {
             usage("One or more columns in addition to the row key are required");
             System.exit(-1);
         }
 
+        // The other tables are written through their own writers, so they can not be the target table
+        String[] tableNames = getTableNames(conf, otherArgs[0]);
+        for (int table = 1; table < tableNames.length; table++) {
+            if (tableNames[table].equals(otherArgs[0])) {
+                usage("Columns and indexes of the target table " + otherArgs[0] + " must not name it");
+                System.exit(-1);
+            }
+        }
+
+        // KeyValues of many tables are written through their own shuffle and not coalesced
+        if (tableNames.length > 1) {
+            if (conf.getBoolean(COALESCE_CONF_KEY, false)) {
+                usage(COALESCE_CONF_KEY + " can not be used with many tables");
+                System.exit(-1);
+            }
+            if (conf.get(BULK_OUTPUT_CONF_KEY) != null
+                    && (conf.getBoolean(BULK_PRESORTED_CONF_KEY, false) || !conf.getBoolean(BULK_STREAMING_CONF_KEY, true))) {
+                usage(BULK_PRESORTED_CONF_KEY + " and " + BULK_STREAMING_CONF_KEY + "=false can not be used with many tables");
+                System.exit(-1);
+            }
+        }
+
+        // Cells of exploded columns are not known in advance, so they can not be coalesced
+        if (conf.getBoolean(COALESCE_CONF_KEY, false)
+                && createParser(conf, conf.get(SEPARATOR_CONF_KEY, DEFAULT_SEPARATOR)).hasExplodedColumns()) {
+            usage(COALESCE_CONF_KEY + " can not be used with exploded columns");
+            System.exit(-1);
+        }
+
+        // Transformed row keys are not sorted as the input is
+        if (conf.get(ROWKEY_TRANSFORM_CONF_KEY) != null && conf.getBoolean(BULK_PRESORTED_CONF_KEY, false)) {
+            usage(ROWKEY_TRANSFORM_CONF_KEY + " can not be used with " + BULK_PRESORTED_CONF_KEY);
+            System.exit(-1);
+        }
+
         Job job = createSubmittableJob(conf, otherArgs);
         System.exit(job.waitForCompletion(true) ? 0 : 1);
     }
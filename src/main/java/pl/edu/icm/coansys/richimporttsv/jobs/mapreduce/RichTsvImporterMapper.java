@@ -9,19 +9,52 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.util.Base64;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.conf.Configuration;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.mapreduce.TableOutputFormat;
 import org.apache.hadoop.hbase.mapreduce.TsvImporterMapper;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.mapreduce.Counter;
-import pl.edu.icm.coansys.richimporttsv.algorithm.KMPMatcher;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import pl.edu.icm.coansys.richimporttsv.algorithm.SeparatorMatcher;
+import pl.edu.icm.coansys.richimporttsv.io.AsyncPutWriter;
 
 /**
  * Write table content out to files in hdfs.
  */
 public class RichTsvImporterMapper extends TsvImporterMapper {
 
+    private static final Log LOG = LogFactory.getLog(RichTsvImporterMapper.class);
+
+    /**
+     * Makes the mapper emit KeyValues (sorted within a record) instead of Puts
+     */
+    public final static String KEYVALUE_OUTPUT_CONF_KEY = "importtsv.mapper.keyvalue.output";
+    /**
+     * Makes the mapper emit the whole keys of the KeyValues, instead of their
+     * rows, as the output keys (see KeyValueKeyComparator)
+     */
+    public final static String KEYVALUE_SORT_KEY_CONF_KEY = "importtsv.mapper.keyvalue.sort.key";
     private RichImportTsv.RichTsvParser parser;
     // Timestamp for all inserted rows
     private long ts;
@@ -29,8 +62,41 @@ public class RichTsvImporterMapper extends TsvImporterMapper {
     private String separator;
     // Should skip bad lines
     private boolean skipBadLines;
-    private byte[] skipUntilSeparatorBytes;
+    private SeparatorMatcher skipUntilSeparatorMatcher;
     private Counter badLineCount;
+    private boolean keyValueOutput;
+    private boolean keyValueSortKey;
+    // indexes of the columns in the order of their families and qualifiers
+    private int[] columnOrder;
+    private final ImmutableBytesWritable rowKey = new ImmutableBytesWritable();
+    private final ImmutableBytesWritable sortKey = new ImmutableBytesWritable();
+    // KeyValues of the current record, when records are processed by a single thread
+    private final List<KeyValue> keyValues = new ArrayList<KeyValue>();
+    private boolean skipWal;
+    // writers sending Puts in the background, instead of the output format,
+    // one per table
+    private AsyncPutWriter[] putWriters;
+    // statistics published as counters, if enabled
+    private ImportMetrics metrics;
+    // side output of bad lines, if a reject directory is given
+    private MultipleOutputs<ImmutableBytesWritable, Put> rejects;
+    private long maxRejects;
+    private int rejectSampleInterval;
+    private long rejectCandidates = 0;
+    private long rejectsWritten = 0;
+    private Counter rejectsWrittenCount;
+    private final Text rejectInfo = new Text();
+    private final Text rejectRecord = new Text();
+    // rows merged before they are written, if enabled
+    private RowCoalescer coalescer;
+    private final List<KeyValue> evicted = new ArrayList<KeyValue>();
+    // if columns are written to many tables, the ends of the KeyValues of
+    // each table among those of the current record
+    private int[] tableEnds;
+    // names of the tables, as the keys of MultiTableOutputFormat
+    private ImmutableBytesWritable[] tableKeys;
+    // table index followed by the key of a KeyValue, reused between KeyValues
+    private byte[] tableSortKey = new byte[64];
 
     @Override
     public long getTs() {
@@ -56,17 +122,154 @@ public class RichTsvImporterMapper extends TsvImporterMapper {
     protected void setup(Context context) {
         doSetup(context);
         Configuration conf = context.getConfiguration();
-        parser = new RichImportTsv.RichTsvParser(conf.get(RichImportTsv.COLUMNS_CONF_KEY), separator);
+        parser = createParser(conf);
         if (parser.getRowKeyColumnIndex() == -1) {
             throw new RuntimeException("No row key column specified");
         }
 
         String skipUntilSeparator = conf.get(RichImportTsv.SKIP_UNTIL_SEPARATOR_CONF_KEY);
         if (skipUntilSeparator != null) {
-            skipUntilSeparatorBytes = Bytes.toBytes(skipUntilSeparator);
+            skipUntilSeparatorMatcher = SeparatorMatcher.compile(Bytes.toBytes(skipUntilSeparator));
+        }
+
+        keyValueOutput = conf.getBoolean(KEYVALUE_OUTPUT_CONF_KEY, false);
+        keyValueSortKey = conf.getBoolean(KEYVALUE_SORT_KEY_CONF_KEY, false);
+        columnOrder = getColumnOrder(parser);
+
+        int tableCount = parser.getTableCount();
+        String[] tableNames = new String[tableCount];
+        tableNames[0] = conf.get(TableOutputFormat.OUTPUT_TABLE);
+        for (int table = 1; table < tableCount; table++) {
+            tableNames[table] = parser.getTableName(table);
+        }
+        if (tableCount > 1) {
+            tableEnds = new int[tableCount];
+            tableKeys = new ImmutableBytesWritable[tableCount];
+            for (int table = 0; table < tableCount && !keyValueOutput; table++) {
+                tableKeys[table] = new ImmutableBytesWritable(Bytes.toBytes(tableNames[table]));
+            }
+        }
+
+        if (conf.getBoolean(RichImportTsv.COALESCE_CONF_KEY, false)) {
+            byte[][] families = new byte[columnOrder.length][];
+            byte[][] qualifiers = new byte[columnOrder.length][];
+            for (int i = 0; i < columnOrder.length; i++) {
+                families[i] = parser.getFamily(columnOrder[i]);
+                qualifiers[i] = parser.getQualifier(columnOrder[i]);
+            }
+            coalescer = new RowCoalescer(families, qualifiers,
+                    conf.getInt(RichImportTsv.COALESCE_VERSIONS_CONF_KEY, 1),
+                    conf.getLong(RichImportTsv.COALESCE_MAX_BYTES_CONF_KEY, RichImportTsv.DEFAULT_COALESCE_MAX_BYTES),
+                    conf.getBoolean(RichImportTsv.COALESCE_SHIFT_TIMESTAMPS_CONF_KEY, false));
+        }
+
+        if (conf.get(RichImportTsv.REJECT_DIR_CONF_KEY) != null) {
+            rejects = new MultipleOutputs<ImmutableBytesWritable, Put>(context);
+            maxRejects = conf.getLong(RichImportTsv.REJECT_MAX_CONF_KEY, Long.MAX_VALUE);
+            rejectSampleInterval = Math.max(1, conf.getInt(RichImportTsv.REJECT_SAMPLE_INTERVAL_CONF_KEY, 1));
+            rejectsWrittenCount = context.getCounter("RichImportTsv", "Rejected Lines Written");
+        }
+
+        if (conf.getBoolean(RichImportTsv.METRICS_CONF_KEY, false)) {
+            metrics = new ImportMetrics(context, parser,
+                    conf.getInt(RichImportTsv.METRICS_SAMPLE_INTERVAL_CONF_KEY, ImportMetrics.DEFAULT_SAMPLE_INTERVAL));
+        }
+
+        skipWal = conf.getBoolean(RichImportTsv.PUT_SKIP_WAL_CONF_KEY, false);
+        if (!keyValueOutput && conf.getBoolean(RichImportTsv.PUT_ASYNC_CONF_KEY, false)) {
+            try {
+                putWriters = new AsyncPutWriter[tableCount];
+                for (int table = 0; table < tableCount; table++) {
+                    putWriters[table] = new AsyncPutWriter(conf, tableNames[table],
+                            conf.getLong(RichImportTsv.PUT_WRITE_BUFFER_CONF_KEY, RichImportTsv.DEFAULT_PUT_WRITE_BUFFER),
+                            skipWal,
+                            conf.getInt(RichImportTsv.PUT_FLUSH_THREADS_CONF_KEY, RichImportTsv.DEFAULT_PUT_FLUSH_THREADS));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
     }
 
+    /**
+     * Creates a parser of the records, with the compressions of the
+     * compressed columns, to be closed once the records are parsed.
+     */
+    private RichImportTsv.RichTsvParser createParser(Configuration conf) {
+        RichImportTsv.RichTsvParser newParser = RichImportTsv.createParser(conf, separator);
+        newParser.setCompressions(conf,
+                conf.getInt(RichImportTsv.COMPRESS_MIN_SIZE_CONF_KEY, RichImportTsv.DEFAULT_COMPRESS_MIN_SIZE));
+        return newParser;
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        if (coalescer != null) {
+            while (writeEvicted(context)) {
+                // flush the rows left
+            }
+            context.getCounter("RichImportTsv", "Coalesced Records").increment(coalescer.getCoalescedRecords());
+            context.getCounter("RichImportTsv", "Coalesced Cells").increment(coalescer.getCoalescedCells());
+        }
+        if (metrics != null) {
+            metrics.close();
+        }
+        parser.close();
+        if (putWriters != null) {
+            long flushes = 0;
+            long flushedPuts = 0;
+            long flushMillis = 0;
+            long maxFlushMillis = 0;
+            for (AsyncPutWriter putWriter : putWriters) {
+                putWriter.close();
+                flushes += putWriter.getFlushes();
+                flushedPuts += putWriter.getFlushedPuts();
+                flushMillis += putWriter.getFlushMillis();
+                maxFlushMillis = Math.max(maxFlushMillis, putWriter.getMaxFlushMillis());
+            }
+            context.getCounter("RichImportTsv", "Put Flushes").setValue(flushes);
+            context.getCounter("RichImportTsv", "Put Flushed Puts").setValue(flushedPuts);
+            context.getCounter("RichImportTsv", "Put Flush Millis").setValue(flushMillis);
+            // a maximum is not summed over the tasks as the counters are
+            LOG.info("Put flushes: " + flushes + ", total time: " + flushMillis
+                    + " ms, maximal time: " + maxFlushMillis + " ms");
+        }
+        // closed once the Puts are flushed, the rejects are committed with the task
+        if (rejects != null) {
+            rejects.close();
+        }
+    }
+
+    /**
+     * Returns the indexes of the columns (except for the row key and ignored
+     * columns) sorted by table, family and qualifier, i.e. in the order in
+     * which KeyValues of a row of each table are sorted.
+     */
+    static int[] getColumnOrder(final RichImportTsv.RichTsvParser parser) {
+        List<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < parser.getColumnCount(); i++) {
+            if (parser.isValueColumn(i)) {
+                columns.add(i);
+            }
+        }
+        Collections.sort(columns, new Comparator<Integer>() {
+
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (parser.getTable(a) != parser.getTable(b)) {
+                    return parser.getTable(a) < parser.getTable(b) ? -1 : 1;
+                }
+                int result = Bytes.compareTo(parser.getFamily(a), parser.getFamily(b));
+                return result != 0 ? result : Bytes.compareTo(parser.getQualifier(a), parser.getQualifier(b));
+            }
+        });
+        int[] order = new int[columns.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = columns.get(i);
+        }
+        return order;
+    }
+
     /**
      * Handles common parameter initialization that a subclass might want to
      * leverage.
@@ -86,72 +289,568 @@ public class RichTsvImporterMapper extends TsvImporterMapper {
         badLineCount = context.getCounter("RichImportTsv", "Bad Lines");
     }
 
-    private void handleBadLines(long offset, String message) {
-        System.err.println("Bad line at offset: " + offset + ":\n" + message);
+    /**
+     * Counts a bad line and prints it, or writes it (if sampled and the limit
+     * is not reached yet) to the reject directory along with its input file,
+     * offset and the reason.
+     */
+    private void handleBadLines(Context context, long offset, byte[] lineBytes, int length, Exception badLine) throws IOException {
         incrementBadLineCount(1);
+        boolean badTsvLine = badLine instanceof RichImportTsv.RichTsvParser.BadTsvLineException;
+        if (metrics != null) {
+            // the messages of BadTsvLineException are the reasons
+            metrics.addBadLine(badTsvLine ? badLine.getMessage() : badLine.getClass().getSimpleName());
+        }
+
+        if (rejects == null) {
+            System.err.println("Bad line at offset: " + offset + ":\n" + badLine.getMessage());
+        } else if (rejectCandidates++ % rejectSampleInterval == 0 && rejectsWritten < maxRejects) {
+            String reason = badTsvLine ? badLine.getMessage() : badLine.toString();
+            rejectInfo.set(getInputFile(context) + "\t" + offset + "\t" + reason.replace('\n', ' '));
+            rejectRecord.set(lineBytes, 0, length);
+            try {
+                rejects.write(RichImportTsv.REJECTS_NAMED_OUTPUT, rejectInfo, rejectRecord);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            rejectsWritten++;
+            rejectsWrittenCount.increment(1);
+        }
     }
 
     /**
-     * Convert a line of TSV text into an HBase table row.
+     * Returns the file the current record comes from. CombineFileRecordReader
+     * sets map.input.file for each file of its split.
      */
-    @Override
-    public void map(LongWritable offset, Text value, Context context) throws IOException {
-        byte[] lineBytes = value.getBytes();
+    private static String getInputFile(Context context) {
+        if (context.getInputSplit() instanceof FileSplit) {
+            return ((FileSplit) context.getInputSplit()).getPath().toString();
+        }
+        return context.getConfiguration().get("map.input.file");
+    }
 
-        try {
-            RichImportTsv.RichTsvParser.ParsedLine parsed = parser.parse(lineBytes, value.getLength());
-            ImmutableBytesWritable rowKey = new ImmutableBytesWritable(lineBytes, parsed.getRowKeyOffset(), parsed.getRowKeyLength());
+    /**
+     * Writes a KeyValue, although the output value type of TsvImporterMapper
+     * is Put. The key is not copied, so the consumer must not hold it.
+     */
+    @SuppressWarnings("unchecked")
+    private void writeKeyValue(Context context, KeyValue kv) throws IOException, InterruptedException {
+        if (keyValueSortKey) {
+            sortKey.set(kv.getBuffer(), kv.getKeyOffset(), kv.getKeyLength());
+            ((TaskInputOutputContext) context).write(sortKey, kv);
+        } else {
+            rowKey.set(kv.getBuffer(), kv.getRowOffset(), kv.getRowLength());
+            ((TaskInputOutputContext) context).write(rowKey, kv);
+        }
+    }
+
+    /**
+     * Writes a KeyValue of one of many tables, keyed by the index of the
+     * table followed by the key of the KeyValue (see
+     * TableKeyValueKeyComparator).
+     */
+    @SuppressWarnings("unchecked")
+    private void writeKeyValue(Context context, int table, KeyValue kv) throws IOException, InterruptedException {
+        int length = 1 + kv.getKeyLength();
+        if (tableSortKey.length < length) {
+            tableSortKey = new byte[Math.max(length, 2 * tableSortKey.length)];
+        }
+        tableSortKey[0] = (byte) table;
+        System.arraycopy(kv.getBuffer(), kv.getKeyOffset(), tableSortKey, 1, kv.getKeyLength());
+        sortKey.set(tableSortKey, 0, length);
+        ((TaskInputOutputContext) context).write(sortKey, kv);
+    }
+
+    /**
+     * Parses a record, adds its KeyValues (sorted within each table) to the
+     * given list and returns them as a Put, unless KeyValues are written
+     * or they belong to many tables (then the ends of the KeyValues of each
+     * table are set in tableEnds). May be called by many threads at once, as
+     * long as each of them uses its own parser.
+     */
+    private Put build(RichImportTsv.RichTsvParser parser, byte[] lineBytes, int length, List<KeyValue> keyValues, int[] tableEnds, boolean sampled)
+            throws RichImportTsv.RichTsvParser.BadTsvLineException, IOException {
+        long start = sampled ? System.nanoTime() : 0;
+        RichImportTsv.RichTsvParser.ParsedLine parsed = parser.parse(lineBytes, length);
+        long parsedTime = sampled ? System.nanoTime() : 0;
+        buildKeyValues(parser, parsed, keyValues, tableEnds);
+        if (keyValues.isEmpty()) {
+            throw new RichImportTsv.RichTsvParser.BadTsvLineException("No columns");
+        }
+        // rows being coalesced are turned into Puts when written, as are
+        // the rows of many tables
+        Put put = keyValueOutput || coalescer != null || tableEnds != null ? null : toPut(keyValues);
+        if (sampled) {
+            metrics.addParseNanos(parsedTime - start);
+            metrics.addBuildNanos(System.nanoTime() - parsedTime);
+        }
+        return put;
+    }
+
+    private void buildKeyValues(RichImportTsv.RichTsvParser parser, RichImportTsv.RichTsvParser.ParsedLine parsed, List<KeyValue> keyValues, int[] tableEnds)
+            throws RichImportTsv.RichTsvParser.BadTsvLineException {
+        int table = 0;
+        int tableStart = 0;
+        boolean exploded = false;
+        for (int i : columnOrder) {
+            while (table < parser.getTable(i)) {
+                exploded |= buildIndexKeyValues(parser, parsed, table, keyValues);
+                tableEnds[table++] = endTable(keyValues, tableStart, exploded);
+                tableStart = keyValues.size();
+                exploded = false;
+            }
+            if (!parsed.hasColumn(i)) {
+                continue;
+            }
+
+            int valueOffset = getValueOffset(parsed, i);
+            int valueEnd = parsed.getColumnOffset(i) + parsed.getColumnLength(i);
+            if (parser.getExplode(i) != RichImportTsv.RichTsvParser.NOT_EXPLODED) {
+                buildElementKeyValues(parser, parsed, i, valueOffset, valueEnd, keyValues);
+                exploded = true;
+            } else {
+                addKeyValue(parser, parsed, i, parser.getQualifier(i), 0, parser.getQualifier(i).length,
+                        valueOffset, valueEnd - valueOffset, keyValues);
+            }
+        }
+        while (tableEnds != null && table < tableEnds.length) {
+            exploded |= buildIndexKeyValues(parser, parsed, table, keyValues);
+            tableEnds[table++] = endTable(keyValues, tableStart, exploded);
+            tableStart = keyValues.size();
+            exploded = false;
+        }
+        if (exploded) {
+            endTable(keyValues, tableStart, exploded);
+        }
+    }
 
-            Put put = new Put(rowKey.copyBytes());
-            for (int i = 0; i < parsed.getColumnCount(); i++) {
-                if (i == parser.getRowKeyColumnIndex()) {
-                    continue;
+    /**
+     * Adds the KeyValue of a column of the record, with the given qualifier
+     * and the value stored in the given range of the line, encoded if the
+     * column is typed (then an empty value is not stored) or compressed.
+     */
+    private void addKeyValue(RichImportTsv.RichTsvParser parser, RichImportTsv.RichTsvParser.ParsedLine parsed, int idx,
+            byte[] qualifierBytes, int qualifierOffset, int qualifierLength, int valueOffset, int valueLength, List<KeyValue> keyValues)
+            throws RichImportTsv.RichTsvParser.BadTsvLineException {
+        byte[] valueBytes = parsed.getLineBytes();
+        if (parser.isTypedColumn(idx)) {
+            // empty values of typed columns are not stored
+            if (valueLength == 0) {
+                return;
+            }
+            valueLength = parser.encodeValue(idx, valueBytes, valueOffset, valueLength);
+            valueBytes = parser.getValueBuffer();
+            valueOffset = 0;
+        } else if (parser.isCompressedColumn(idx)) {
+            valueLength = parser.compressValue(idx, valueBytes, valueOffset, valueLength);
+            valueBytes = parser.getCompressionBuffer(idx);
+            valueOffset = 0;
+        }
+        KeyValue kv = new KeyValue(
+                parsed.getRowKeyBytes(), parsed.getRowKeyOffset(), parsed.getRowKeyLength(),
+                parser.getFamily(idx), 0, parser.getFamily(idx).length,
+                qualifierBytes, qualifierOffset, qualifierLength,
+                ts,
+                KeyValue.Type.Put,
+                valueBytes, valueOffset, valueLength);
+        keyValues.add(kv);
+    }
+
+    /**
+     * Adds a KeyValue per element of the value of an exploded column, which
+     * is split in place (empty elements are skipped): named after the element
+     * with an empty value, or after its index with the element as the value.
+     */
+    private void buildElementKeyValues(RichImportTsv.RichTsvParser parser, RichImportTsv.RichTsvParser.ParsedLine parsed, int idx,
+            int valueOffset, int valueEnd, List<KeyValue> keyValues)
+            throws RichImportTsv.RichTsvParser.BadTsvLineException {
+        byte[] lineBytes = parsed.getLineBytes();
+        SeparatorMatcher matcher = parser.getExplodeSeparatorMatcher();
+        boolean elementQualifiers = parser.getExplode(idx) == RichImportTsv.RichTsvParser.ELEMENT_QUALIFIERS;
+        int index = 0;
+        int i = valueOffset;
+        while (i < valueEnd) {
+            int separatorStart = matcher.indexOf(lineBytes, i, valueEnd);
+            int elementEnd = separatorStart == SeparatorMatcher.FAILURE ? valueEnd : separatorStart;
+            if (elementEnd > i) {
+                if (!elementQualifiers) {
+                    addKeyValue(parser, parsed, idx, parser.getQualifierBuffer(), 0, parser.buildIndexedQualifier(idx, index++),
+                            i, elementEnd - i, keyValues);
+                } else if (parser.getQualifier(idx).length == 0) {
+                    // the element is the qualifier, taken from the line as it is
+                    addKeyValue(parser, parsed, idx, lineBytes, i, elementEnd - i, elementEnd, 0, keyValues);
+                } else {
+                    addKeyValue(parser, parsed, idx, parser.getQualifierBuffer(), 0, parser.buildElementQualifier(idx, lineBytes, i, elementEnd - i),
+                            elementEnd, 0, keyValues);
                 }
+            }
+            if (separatorStart == SeparatorMatcher.FAILURE) {
+                break;
+            }
+            i = separatorStart + matcher.getMatchLength();
+        }
+    }
 
-                int valueOffset = parsed.getColumnOffset(i);
-                int valueLength = parsed.getColumnLength(i);
-                if (skipUntilSeparatorBytes != null) {
-                    int originalValueOffset = valueOffset;
-                    int valueEndOffset = originalValueOffset + valueLength;
-                    int skipSeparatorStart = KMPMatcher.indexOf(lineBytes, originalValueOffset, skipUntilSeparatorBytes, valueEndOffset);
-                    if (skipSeparatorStart == KMPMatcher.FAILURE) {
-                        valueLength = 0;
-                    } else {
-                        valueOffset = skipSeparatorStart + skipUntilSeparatorBytes.length;
-                        valueLength = parsed.getColumnLength(i) - (valueOffset - originalValueOffset);
-                    }
+    /**
+     * Adds the KeyValues of the indexes written to the table: the value of
+     * the indexed column (or each element of an exploded one) is the row and
+     * the row key of the record is the qualifier. Empty values are not
+     * indexed.
+     *
+     * @return whether an exploded column was indexed
+     */
+    private boolean buildIndexKeyValues(RichImportTsv.RichTsvParser parser, RichImportTsv.RichTsvParser.ParsedLine parsed, int table, List<KeyValue> keyValues) {
+        boolean exploded = false;
+        for (int index = 0; index < parser.getIndexCount(); index++) {
+            int i = parser.getIndexColumn(index);
+            if (parser.getIndexTable(index) != table || !parsed.hasColumn(i)) {
+                continue;
+            }
+            int valueOffset = getValueOffset(parsed, i);
+            int valueEnd = parsed.getColumnOffset(i) + parsed.getColumnLength(i);
+            if (parser.getExplode(i) == RichImportTsv.RichTsvParser.NOT_EXPLODED) {
+                addIndexKeyValue(parser, parsed, i, valueOffset, valueEnd - valueOffset, keyValues);
+                continue;
+            }
+            exploded = true;
+            SeparatorMatcher matcher = parser.getExplodeSeparatorMatcher();
+            while (valueOffset < valueEnd) {
+                int separatorStart = matcher.indexOf(parsed.getLineBytes(), valueOffset, valueEnd);
+                int elementEnd = separatorStart == SeparatorMatcher.FAILURE ? valueEnd : separatorStart;
+                addIndexKeyValue(parser, parsed, i, valueOffset, elementEnd - valueOffset, keyValues);
+                if (separatorStart == SeparatorMatcher.FAILURE) {
+                    break;
                 }
+                valueOffset = separatorStart + matcher.getMatchLength();
+            }
+        }
+        return exploded;
+    }
+
+    private void addIndexKeyValue(RichImportTsv.RichTsvParser parser, RichImportTsv.RichTsvParser.ParsedLine parsed, int idx,
+            int valueOffset, int valueLength, List<KeyValue> keyValues) {
+        if (valueLength == 0) {
+            return;
+        }
+        KeyValue kv = new KeyValue(
+                parsed.getLineBytes(), valueOffset, valueLength,
+                parser.getFamily(idx), 0, parser.getFamily(idx).length,
+                parsed.getRowKeyBytes(), parsed.getRowKeyOffset(), parsed.getRowKeyLength(),
+                ts,
+                KeyValue.Type.Put,
+                HConstants.EMPTY_BYTE_ARRAY, 0, 0);
+        keyValues.add(kv);
+    }
+
+    /**
+     * Ends the KeyValues of a table, added from the given position on. The
+     * cells of exploded columns come in the order of their elements, so if
+     * there are any, the KeyValues are sorted and the repeated ones dropped.
+     *
+     * @return the end of the KeyValues of the table
+     */
+    private static int endTable(List<KeyValue> keyValues, int start, boolean exploded) {
+        if (exploded) {
+            List<KeyValue> table = keyValues.subList(start, keyValues.size());
+            Collections.sort(table, KeyValue.COMPARATOR);
+            for (int i = table.size() - 1; i > 0; i--) {
+                if (KeyValue.COMPARATOR.compare(table.get(i - 1), table.get(i)) == 0) {
+                    table.remove(i);
+                }
+            }
+        }
+        return keyValues.size();
+    }
 
-                KeyValue kv = new KeyValue(
-                        lineBytes, parsed.getRowKeyOffset(), parsed.getRowKeyLength(),
-                        parser.getFamily(i), 0, parser.getFamily(i).length,
-                        parser.getQualifier(i), 0, parser.getQualifier(i).length,
-                        ts,
-                        KeyValue.Type.Put,
-                        lineBytes, valueOffset, valueLength);
-                put.add(kv);
+    /**
+     * Returns the offset of the value of the column, which starts after the
+     * separator given by importtsv.skip.until.separator, if any. The value
+     * ends with the column and is empty if there is no such separator.
+     */
+    private int getValueOffset(RichImportTsv.RichTsvParser.ParsedLine parsed, int idx) {
+        int columnOffset = parsed.getColumnOffset(idx);
+        if (skipUntilSeparatorMatcher == null) {
+            return columnOffset;
+        }
+        int columnEnd = columnOffset + parsed.getColumnLength(idx);
+        int skipSeparatorStart = skipUntilSeparatorMatcher.indexOf(parsed.getLineBytes(), columnOffset, columnEnd);
+        if (skipSeparatorStart == SeparatorMatcher.FAILURE) {
+            return columnEnd;
+        }
+        return skipSeparatorStart + skipUntilSeparatorMatcher.getMatchLength();
+    }
+
+    private Put toPut(List<KeyValue> keyValues) throws IOException {
+        Put put = new Put(keyValues.get(0).getRow());
+        if (skipWal) {
+            put.setWriteToWAL(false);
+        }
+        for (KeyValue kv : keyValues) {
+            put.add(kv);
+        }
+        return put;
+    }
+
+    private void write(Context context, List<KeyValue> keyValues, int[] tableEnds, Put put, boolean sampled) throws IOException, InterruptedException {
+        long start = sampled ? System.nanoTime() : 0;
+        if (coalescer != null) {
+            coalescer.add(keyValues);
+            while (coalescer.isFull()) {
+                writeEvicted(context);
+            }
+        } else if (tableEnds != null) {
+            writeTables(context, keyValues, tableEnds);
+        } else {
+            writeRow(context, keyValues, put);
+        }
+        if (metrics != null) {
+            if (sampled) {
+                metrics.addWriteNanos(System.nanoTime() - start);
             }
+            metrics.addKeyValues(keyValues);
+        }
+    }
 
+    /**
+     * Writes the least recently used row of the coalescer.
+     *
+     * @return false if there are no rows left
+     */
+    private boolean writeEvicted(Context context) throws IOException, InterruptedException {
+        evicted.clear();
+        if (!coalescer.evict(evicted)) {
+            return false;
+        }
+        writeRow(context, evicted, keyValueOutput ? null : toPut(evicted));
+        return true;
+    }
+
+    private void writeRow(Context context, List<KeyValue> keyValues, Put put) throws IOException, InterruptedException {
+        if (keyValueOutput) {
+            for (KeyValue kv : keyValues) {
+                writeKeyValue(context, kv);
+            }
+        } else if (putWriters != null) {
+            putWriters[0].put(put);
+        } else {
+            rowKey.set(put.getRow());
             context.write(rowKey, put);
+        }
+    }
+
+    /**
+     * Writes the KeyValues of a record to the tables they belong to, keyed
+     * by the index of the table or, as Puts (one per table and row), by its
+     * name.
+     */
+    private void writeTables(Context context, List<KeyValue> keyValues, int[] tableEnds) throws IOException, InterruptedException {
+        int start = 0;
+        for (int table = 0; table < tableEnds.length; table++) {
+            int end = tableEnds[table];
+            if (keyValueOutput) {
+                for (int i = start; i < end; i++) {
+                    writeKeyValue(context, table, keyValues.get(i));
+                }
+                start = end;
+            }
+            while (start < end) {
+                int rowEnd = start + 1;
+                while (rowEnd < end && keyValues.get(rowEnd).matchingRow(keyValues.get(start))) {
+                    rowEnd++;
+                }
+                Put put = toPut(keyValues.subList(start, rowEnd));
+                if (putWriters != null) {
+                    putWriters[table].put(put);
+                } else {
+                    context.write(tableKeys[table], put);
+                }
+                start = rowEnd;
+            }
+        }
+    }
+
+    /**
+     * Convert a line of TSV text into an HBase table row.
+     */
+    @Override
+    public void map(LongWritable offset, Text value, Context context) throws IOException {
+        map(offset, value, context, metrics != null && metrics.sample());
+    }
+
+    private void map(LongWritable offset, Text value, Context context, boolean sampled) throws IOException {
+        if (metrics != null) {
+            metrics.addRecord(value.getLength());
+        }
+        try {
+            keyValues.clear();
+            Put put = build(parser, value.getBytes(), value.getLength(), keyValues, tableEnds, sampled);
+            write(context, keyValues, tableEnds, put, sampled);
 
         } catch (RichImportTsv.RichTsvParser.BadTsvLineException badLine) {
             if (skipBadLines) {
-                handleBadLines(offset.get(), badLine.getMessage());
+                handleBadLines(context, offset.get(), value.getBytes(), value.getLength(), badLine);
             } else {
                 throw new IOException(badLine);
             }
         } catch (IllegalArgumentException e) {
             if (skipBadLines) {
-                handleBadLines(offset.get(), e.getMessage());
+                handleBadLines(context, offset.get(), value.getBytes(), value.getLength(), e);
             } else {
                 throw new IOException(e);
             }
         } catch (InterruptedException e) {
             if (skipBadLines) {
-                handleBadLines(offset.get(), e.getMessage());
+                handleBadLines(context, offset.get(), value.getBytes(), value.getLength(), e);
             } else {
                 throw new IOException(e);
             }
         }
     }
+
+    /**
+     * Output built from a record by a worker thread.
+     */
+    private static class Record {
+
+        final long offset;
+        final byte[] lineBytes;
+        final boolean sampled;
+        final List<KeyValue> keyValues = new ArrayList<KeyValue>();
+        final int[] tableEnds;
+        Put put;
+        Exception badLine;
+
+        Record(long offset, byte[] lineBytes, boolean sampled, int tableCount) {
+            this.offset = offset;
+            this.lineBytes = lineBytes;
+            this.sampled = sampled;
+            tableEnds = tableCount > 1 ? new int[tableCount] : null;
+        }
+    }
+
+    @Override
+    public void run(Context context) throws IOException, InterruptedException {
+        int threads = context.getConfiguration().getInt(RichImportTsv.MAPPER_THREADS_CONF_KEY, 1);
+        setup(context);
+        if (threads <= 1) {
+            boolean sampled = metrics != null && metrics.sample();
+            while (nextKeyValue(context, sampled)) {
+                map(context.getCurrentKey(), context.getCurrentValue(), context, sampled);
+                sampled = metrics != null && metrics.sample();
+            }
+        } else {
+            runParallel(context, threads);
+        }
+        cleanup(context);
+    }
+
+    private boolean nextKeyValue(Context context, boolean sampled) throws IOException, InterruptedException {
+        if (!sampled) {
+            return context.nextKeyValue();
+        }
+        long start = System.nanoTime();
+        boolean read = context.nextKeyValue();
+        metrics.addReadNanos(System.nanoTime() - start);
+        return read;
+    }
+
+    /**
+     * Reads the records on the calling thread and parses them on a pool of
+     * worker threads. The results are written on the calling thread, in the
+     * input order, unless the KeyValues are sorted by the shuffle anyway.
+     * At most importtsv.mapper.queue.size records are being processed at
+     * once, so reading waits for the workers when they fall behind.
+     */
+    private void runParallel(Context context, int threads) throws IOException, InterruptedException {
+        Configuration conf = context.getConfiguration();
+        final Configuration parserConf = conf;
+        final List<RichImportTsv.RichTsvParser> workerParsers =
+                Collections.synchronizedList(new ArrayList<RichImportTsv.RichTsvParser>());
+        final ThreadLocal<RichImportTsv.RichTsvParser> parsers = new ThreadLocal<RichImportTsv.RichTsvParser>() {
+
+            @Override
+            protected RichImportTsv.RichTsvParser initialValue() {
+                RichImportTsv.RichTsvParser parser = createParser(parserConf);
+                workerParsers.add(parser);
+                return parser;
+            }
+        };
+        int queueSize = conf.getInt(RichImportTsv.MAPPER_QUEUE_SIZE_CONF_KEY, 4 * threads);
+        boolean ordered = !keyValueOutput || context.getNumReduceTasks() == 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        // the results of unordered records are taken as soon as they are ready
+        CompletionService<Record> completed = ordered ? null : new ExecutorCompletionService<Record>(executor);
+        LinkedList<Future<Record>> pending = new LinkedList<Future<Record>>();
+        try {
+            boolean next = metrics != null && metrics.sample();
+            while (nextKeyValue(context, next)) {
+                final boolean sampled = next;
+                final long offset = context.getCurrentKey().get();
+                Text value = context.getCurrentValue();
+                if (metrics != null) {
+                    metrics.addRecord(value.getLength());
+                }
+                final byte[] lineBytes = Arrays.copyOf(value.getBytes(), value.getLength());
+                Callable<Record> task = new Callable<Record>() {
+
+                    @Override
+                    public Record call() {
+                        return buildRecord(parsers.get(), offset, lineBytes, sampled);
+                    }
+                };
+                pending.add(ordered ? executor.submit(task) : completed.submit(task));
+                if (pending.size() == queueSize) {
+                    writeRecord(context, ordered ? pending.removeFirst() : takeCompleted(completed, pending));
+                }
+                next = metrics != null && metrics.sample();
+            }
+            while (!pending.isEmpty()) {
+                writeRecord(context, ordered ? pending.removeFirst() : takeCompleted(completed, pending));
+            }
+        } finally {
+            executor.shutdownNow();
+            // the parsers are closed once no worker uses them
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            for (RichImportTsv.RichTsvParser workerParser : workerParsers) {
+                workerParser.close();
+            }
+        }
+    }
+
+    private static Future<Record> takeCompleted(CompletionService<Record> completed, List<Future<Record>> pending) throws InterruptedException {
+        Future<Record> future = completed.take();
+        pending.remove(future);
+        return future;
+    }
+
+    private Record buildRecord(RichImportTsv.RichTsvParser parser, long offset, byte[] lineBytes, boolean sampled) {
+        Record record = new Record(offset, lineBytes, sampled, parser.getTableCount());
+        try {
+            record.put = build(parser, lineBytes, lineBytes.length, record.keyValues, record.tableEnds, sampled);
+        } catch (RichImportTsv.RichTsvParser.BadTsvLineException e) {
+            record.badLine = e;
+        } catch (IllegalArgumentException e) {
+            record.badLine = e;
+        } catch (IOException e) {
+            record.badLine = e;
+        }
+        return record;
+    }
+
+    private void writeRecord(Context context, Future<Record> future) throws IOException, InterruptedException {
+        Record record;
+        try {
+            record = future.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        if (record.badLine == null) {
+            write(context, record.keyValues, record.tableEnds, record.put, record.sampled);
+        } else if (skipBadLines) {
+            handleBadLines(context, record.offset, record.lineBytes, record.lineBytes.length, record.badLine);
+        } else {
+            throw new IOException(record.badLine);
+        }
+    }
 }
@@ -0,0 +1,178 @@
+package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+
+/**
+ * Merges the KeyValues of records with the same row key, so that a row which
+ * occurs many times in the input is written once. The rows are kept in the
+ * order of their last use and the least recently used ones are evicted when
+ * their total size exceeds the limit.
+ *
+ * Of the values of a column, the given number of the most recent ones are
+ * kept, with their own timestamps: a value replaces the one of the same
+ * timestamp, as in HBase. Since all the KeyValues of a job usually have the
+ * same timestamp, the timestamps may be shifted instead, so that the older
+ * versions are written with the timestamp decreased by one per version.
+ */
+public class RowCoalescer {
+
+    // estimated memory taken by a row besides its KeyValues
+    private static final int ROW_OVERHEAD = 128;
+    private final byte[][] families;
+    private final byte[][] qualifiers;
+    private final int versions;
+    private final boolean shiftTimestamps;
+    private final long maxBytes;
+    private final LinkedHashMap<ImmutableBytesWritable, Row> rows =
+            new LinkedHashMap<ImmutableBytesWritable, Row>(1024, 0.75f, true);
+    private final ImmutableBytesWritable probe = new ImmutableBytesWritable();
+    private long bytes = 0;
+    private long coalescedRecords = 0;
+    private long coalescedCells = 0;
+
+    /**
+     * Values of the columns of a row, the most recent (by timestamp, unless
+     * the timestamps are shifted) first
+     */
+    private class Row {
+
+        final int size;
+        final KeyValue[][] values = new KeyValue[families.length][versions];
+        final int[] counts = new int[families.length];
+
+        Row(int rowLength) {
+            size = ROW_OVERHEAD + rowLength;
+        }
+    }
+
+    /**
+     * @param families families of the columns, in the order of their
+     * KeyValues within a record
+     * @param qualifiers qualifiers of the columns
+     * @param versions number of the most recent values of a column kept
+     * @param maxBytes size of the buffered rows above which they are evicted
+     * @param shiftTimestamps whether the older versions are written with
+     * timestamps decreased by one per version
+     */
+    public RowCoalescer(byte[][] families, byte[][] qualifiers, int versions, long maxBytes, boolean shiftTimestamps) {
+        if (versions < 1) {
+            throw new IllegalArgumentException("At least one version must be kept");
+        }
+        this.families = families;
+        this.qualifiers = qualifiers;
+        this.versions = versions;
+        this.maxBytes = maxBytes;
+        this.shiftTimestamps = shiftTimestamps;
+    }
+
+    /**
+     * Adds the KeyValues of a record, sorted as the columns are.
+     */
+    public void add(List<KeyValue> keyValues) {
+        if (keyValues.isEmpty()) {
+            return;
+        }
+        KeyValue first = keyValues.get(0);
+        probe.set(first.getBuffer(), first.getRowOffset(), first.getRowLength());
+        Row row = rows.get(probe);
+        if (row == null) {
+            row = new Row(first.getRowLength());
+            rows.put(new ImmutableBytesWritable(first.getRow()), row);
+            bytes += row.size;
+        } else {
+            coalescedRecords++;
+        }
+
+        int column = 0;
+        for (KeyValue kv : keyValues) {
+            while (!kv.matchingColumn(families[column], qualifiers[column])) {
+                column++;
+            }
+            KeyValue[] values = row.values[column];
+            int count = row.counts[column];
+            // the newer value goes first, so the older ones when the timestamps are shifted
+            int position = 0;
+            if (!shiftTimestamps) {
+                while (position < count && values[position].getTimestamp() > kv.getTimestamp()) {
+                    position++;
+                }
+            }
+            if (!shiftTimestamps && position < count && values[position].getTimestamp() == kv.getTimestamp()) {
+                // the value of the same timestamp is replaced, as in HBase
+                bytes -= values[position].getLength();
+                coalescedCells++;
+                values[position] = kv;
+                bytes += kv.getLength();
+            } else if (position == versions) {
+                // older than all the values kept
+                coalescedCells++;
+            } else {
+                if (count == versions) {
+                    // the oldest value is dropped
+                    bytes -= values[count - 1].getLength();
+                    coalescedCells++;
+                    count--;
+                }
+                System.arraycopy(values, position, values, position + 1, count - position);
+                values[position] = kv;
+                row.counts[column] = count + 1;
+                bytes += kv.getLength();
+            }
+        }
+    }
+
+    /**
+     * Returns whether the buffered rows take more than the limit, so that
+     * some of them should be evicted.
+     */
+    public boolean isFull() {
+        return bytes > maxBytes;
+    }
+
+    /**
+     * Moves the KeyValues of the least recently used row to the list, sorted
+     * as in an HFile.
+     *
+     * @return false if there are no rows left
+     */
+    public boolean evict(List<KeyValue> keyValues) {
+        Iterator<Row> iterator = rows.values().iterator();
+        if (!iterator.hasNext()) {
+            return false;
+        }
+        Row row = iterator.next();
+        iterator.remove();
+        for (int column = 0; column < families.length; column++) {
+            KeyValue[] values = row.values[column];
+            for (int i = 0; i < row.counts[column]; i++) {
+                KeyValue kv = values[i];
+                bytes -= kv.getLength();
+                if (shiftTimestamps && i > 0) {
+                    kv = new KeyValue(kv.getRow(), kv.getFamily(), kv.getQualifier(),
+                            kv.getTimestamp() - i, KeyValue.Type.Put, kv.getValue());
+                }
+                keyValues.add(kv);
+            }
+        }
+        bytes -= row.size;
+        return true;
+    }
+
+    /**
+     * Returns the number of records merged into a row added before.
+     */
+    public long getCoalescedRecords() {
+        return coalescedRecords;
+    }
+
+    /**
+     * Returns the number of values dropped, as replaced by newer ones.
+     */
+    public long getCoalescedCells() {
+        return coalescedCells;
+    }
+}
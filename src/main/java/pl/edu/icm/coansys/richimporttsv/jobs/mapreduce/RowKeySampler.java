@@ -0,0 +1,210 @@
+package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import pl.edu.icm.coansys.richimporttsv.io.SeparatorInputFormat;
+import pl.edu.icm.coansys.richimporttsv.io.SeparatorRecordReader;
+
+/**
+ * Reads the beginning of each input split and chooses the row keys at which
+ * the target table should be split, so that each region gets a similar
+ * amount of data. Records are weighted by the size of their KeyValues.
+ */
+public class RowKeySampler {
+
+    public final static String FRACTION_CONF_KEY = "importtsv.presplit.sample.fraction";
+    public final static String MAX_KEYS_CONF_KEY = "importtsv.presplit.sample.max.keys";
+    public final static String REGION_SIZE_CONF_KEY = "importtsv.presplit.region.size";
+    final static float DEFAULT_FRACTION = 0.01f;
+    final static int DEFAULT_MAX_KEYS = 1000000;
+
+    static class Sample {
+
+        final byte[] row;
+        final long size;
+
+        Sample(byte[] row, long size) {
+            this.row = row;
+            this.size = size;
+        }
+    }
+
+    private final Configuration readerConf;
+    private final RichImportTsv.RichTsvParser parser;
+    private final float fraction;
+    private final int maxKeys;
+    private final long regionSize;
+    // reservoir of the sampled records, uniformly chosen when there are more
+    // than maxKeys of them
+    private final List<Sample> samples = new ArrayList<Sample>();
+    private final Random random = new Random();
+    private long sampledRecords = 0;
+    // sizes of the input, as stored in the files (i.e. compressed, if the
+    // input is), and of the KeyValues of the sampled records
+    private long inputBytes = 0;
+    private long sampledInputBytes = 0;
+    private long sampledOutputBytes = 0;
+
+    /**
+     * @param conf job configuration with importtsv.* options
+     * @param parser parser of the records, configured with the separator
+     * as given by the user (i.e. not encoded by ImportTsv)
+     */
+    public RowKeySampler(Configuration conf, RichImportTsv.RichTsvParser parser) {
+        this.parser = parser;
+        readerConf = new Configuration(conf);
+        RichImportTsv.configureRecordReader(conf, readerConf);
+        fraction = conf.getFloat(FRACTION_CONF_KEY, DEFAULT_FRACTION);
+        maxKeys = conf.getInt(MAX_KEYS_CONF_KEY, DEFAULT_MAX_KEYS);
+        // leave the regions room to grow before they are split
+        regionSize = conf.getLong(REGION_SIZE_CONF_KEY,
+                conf.getLong(HConstants.HREGION_MAX_FILESIZE, HConstants.DEFAULT_MAX_FILE_SIZE) / 2);
+    }
+
+    /**
+     * Samples the input and returns the keys at which the regions should
+     * start (excluding the first, empty one).
+     */
+    public byte[][] getSplitKeys(Path inputDir) throws IOException {
+        Job job = new Job(readerConf);
+        FileInputFormat.setInputPaths(job, inputDir);
+        for (InputSplit split : new SeparatorInputFormat().getSplits(job)) {
+            sample((FileSplit) split);
+        }
+
+        if (sampledInputBytes == 0) {
+            return new byte[0][];
+        }
+        int regions = (int) Math.min(Integer.MAX_VALUE, Math.ceil(getEstimatedOutputBytes() / regionSize));
+        return getSplitKeys(samples, regions);
+    }
+
+    /**
+     * Returns the size of the KeyValues of the whole input, extrapolated
+     * from the sampled part of it.
+     */
+    double getEstimatedOutputBytes() {
+        return sampledInputBytes == 0 ? 0 : (double) sampledOutputBytes / sampledInputBytes * inputBytes;
+    }
+
+    private void sample(FileSplit split) throws IOException {
+        inputBytes += split.getLength();
+        long limit = split.getStart() + Math.max(1, (long) (fraction * split.getLength()));
+
+        SeparatorRecordReader reader = new SeparatorRecordReader();
+        reader.initialize(split, readerConf);
+        // positions in the file, not in the decompressed records (the keys),
+        // so that they are measured in the same units as the splits. The
+        // position of compressed input moves ahead of the records read, by
+        // the chunks read by the codec, so the records up to the limit
+        // inclusive are read.
+        long position = split.getStart();
+        try {
+            while (position <= limit && reader.nextKeyValue()) {
+                add(reader.getCurrentValue());
+                position = reader.getFilePosition();
+            }
+        } finally {
+            reader.close();
+        }
+        sampledInputBytes += Math.max(0, Math.min(position, split.getStart() + split.getLength()) - split.getStart());
+    }
+
+    private void add(Text value) {
+        RichImportTsv.RichTsvParser.ParsedLine parsed;
+        try {
+            parsed = parser.parse(value.getBytes(), value.getLength());
+        } catch (RichImportTsv.RichTsvParser.BadTsvLineException e) {
+            return;
+        }
+
+        int rowLength = parsed.getRowKeyLength();
+        long size = 0;
+        for (int i = 0; i < parsed.getColumnCount(); i++) {
+            if (parser.isValueColumn(i) && parsed.hasColumn(i)) {
+                size += getKeyValueSize(rowLength, parser.getFamily(i).length,
+                        parser.getQualifier(i).length, parsed.getColumnLength(i));
+            }
+        }
+        sampledOutputBytes += size;
+
+        sampledRecords++;
+        int index = samples.size();
+        if (index >= maxKeys) {
+            long candidate = (long) (random.nextDouble() * sampledRecords);
+            if (candidate >= maxKeys) {
+                return;
+            }
+            index = (int) candidate;
+        }
+        byte[] row = new byte[rowLength];
+        System.arraycopy(parsed.getRowKeyBytes(), parsed.getRowKeyOffset(), row, 0, rowLength);
+        if (index == samples.size()) {
+            samples.add(new Sample(row, size));
+        } else {
+            samples.set(index, new Sample(row, size));
+        }
+    }
+
+    /**
+     * Returns the size of a KeyValue: key and value lengths, row length,
+     * row, family length, family, qualifier, timestamp, type and value.
+     */
+    static long getKeyValueSize(int rowLength, int familyLength, int qualifierLength, int valueLength) {
+        return 4 + 4 + 2 + rowLength + 1 + familyLength + qualifierLength + 8 + 1 + valueLength;
+    }
+
+    /**
+     * Sorts the samples and cuts them into the given number of ranges of a
+     * similar total size. Duplicated and empty keys are skipped, so fewer
+     * keys may be returned.
+     */
+    static byte[][] getSplitKeys(List<Sample> samples, int regions) {
+        List<byte[]> splitKeys = new ArrayList<byte[]>();
+        if (regions <= 1 || samples.isEmpty()) {
+            return new byte[0][];
+        }
+
+        Collections.sort(samples, new Comparator<Sample>() {
+
+            @Override
+            public int compare(Sample a, Sample b) {
+                return Bytes.compareTo(a.row, b.row);
+            }
+        });
+        long total = 0;
+        for (Sample sample : samples) {
+            total += sample.size;
+        }
+
+        long cumulative = 0;
+        int region = 1;
+        for (Sample sample : samples) {
+            byte[] last = splitKeys.isEmpty() ? HConstants.EMPTY_BYTE_ARRAY : splitKeys.get(splitKeys.size() - 1);
+            if (cumulative >= (double) total * region / regions && Bytes.compareTo(last, sample.row) < 0) {
+                splitKeys.add(sample.row);
+                while (region < regions && cumulative >= (double) total * region / regions) {
+                    region++;
+                }
+                if (region == regions) {
+                    break;
+                }
+            }
+            cumulative += sample.size;
+        }
+        return splitKeys.toArray(new byte[splitKeys.size()][]);
+    }
+}
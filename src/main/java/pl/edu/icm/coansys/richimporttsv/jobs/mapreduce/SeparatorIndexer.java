@@ -0,0 +1,116 @@
+package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
+
+import java.io.IOException;
+import java.util.Arrays;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.util.GenericOptionsParser;
+import pl.edu.icm.coansys.richimporttsv.io.SeparatorIndex;
+import pl.edu.icm.coansys.richimporttsv.io.SeparatorRecordReader;
+
+/**
+ * Writes a SeparatorIndex next to each of the given input files, so that
+ * SeparatorInputFormat can split them exactly at record boundaries.
+ */
+public class SeparatorIndexer {
+
+    public final static String NAME = SeparatorIndexer.class.getName();
+    public final static String INTERVAL_CONF_KEY = "importtsv.record.index.interval";
+    public final static long DEFAULT_INTERVAL = 1024 * 1024;
+
+    /**
+     * Reads the whole file and collects the starts of records which are at
+     * least interval bytes apart.
+     */
+    public static SeparatorIndex index(FileStatus file, Configuration conf, long interval) throws IOException {
+        SeparatorRecordReader reader = new SeparatorRecordReader();
+        reader.initialize(new FileSplit(file.getPath(), 0, file.getLen(), null), conf);
+
+        long[] recordStarts = new long[16];
+        int count = 1;
+        try {
+            while (reader.nextKeyValue()) {
+                // the key is the position right after the record
+                long nextRecordStart = reader.getCurrentKey().get();
+                if (nextRecordStart < file.getLen() && nextRecordStart - recordStarts[count - 1] >= interval) {
+                    if (count == recordStarts.length) {
+                        recordStarts = Arrays.copyOf(recordStarts, count * 2);
+                    }
+                    recordStarts[count++] = nextRecordStart;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        byte[] separator = SeparatorRecordReader.getSeparatorKey(conf);
+        return new SeparatorIndex(separator, file.getLen(), Arrays.copyOf(recordStarts, count));
+    }
+
+    private static void indexPath(FileSystem fs, Path path, Configuration conf, long interval) throws IOException {
+        CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+        for (FileStatus file : fs.listStatus(path)) {
+            String name = file.getPath().getName();
+            if (name.startsWith(".") || name.startsWith("_")) {
+                continue;
+            }
+            if (file.isDir()) {
+                indexPath(fs, file.getPath(), conf, interval);
+            } else if (codecs.getCodec(file.getPath()) != null) {
+                System.err.println("Skipping compressed file: " + file.getPath());
+            } else {
+                SeparatorIndex index = index(file, conf, interval);
+                index.write(fs, file.getPath());
+                System.out.println("Indexed " + file.getPath() + ": " + index.getRecordStarts().length + " record starts");
+            }
+        }
+    }
+
+    /*
+     * @param errorMsg Error message. Can be null.
+     */
+    private static void usage(final String errorMsg) {
+        if (errorMsg != null && errorMsg.length() > 0) {
+            System.err.println("ERROR: " + errorMsg);
+        }
+        String usage =
+                "Usage: " + NAME + " <inputdir or file>...\n"
+                + "\n"
+                + "Writes an index of record starts next to each input file, so that the input can be\n"
+                + "split exactly at record boundaries by " + RichImportTsv.DEFAULT_INPUT_FORMAT.getName() + ".\n"
+                + "The index is used as long as it is newer than the file and the same record separator is used.\n"
+                + "Compressed files are not indexed.\n"
+                + "\n"
+                + "Options that may be specified with -D include:\n"
+                + "  -D" + RichImportTsv.RECORD_SEPARATOR_CONF_KEY + "=# - eg separate records on # instead of new lines\n"
+                + "  -D" + RichImportTsv.RECORD_SEPARATORS_CONF_KEY + "=#,## - separate records on any of the comma separated separators\n"
+                + "  -D" + INTERVAL_CONF_KEY + "=1048576 - minimal distance in bytes between indexed record starts\n";
+
+        System.err.println(usage);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Configuration conf = HBaseConfiguration.create();
+        String[] otherArgs = new GenericOptionsParser(conf, args).getRemainingArgs();
+        if (otherArgs.length < 1) {
+            usage("Wrong number of arguments: " + otherArgs.length);
+            System.exit(-1);
+        }
+
+        conf.set(SeparatorRecordReader.RECORD_SEPARATOR_CONF_KEY,
+                conf.get(RichImportTsv.RECORD_SEPARATOR_CONF_KEY, RichImportTsv.DEFAULT_RECORD_SEPARATOR));
+        String recordSeparators = conf.get(RichImportTsv.RECORD_SEPARATORS_CONF_KEY);
+        if (recordSeparators != null) {
+            conf.set(SeparatorRecordReader.RECORD_SEPARATORS_CONF_KEY, recordSeparators);
+        }
+        long interval = conf.getLong(INTERVAL_CONF_KEY, DEFAULT_INTERVAL);
+        for (String arg : otherArgs) {
+            Path path = new Path(arg);
+            indexPath(path.getFileSystem(conf), path, conf, interval);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
+
+import java.io.IOException;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Writes KeyValues sorted by the shuffle (see KeyValueKeyComparator) one by
+ * one, so that, unlike KeyValueSortReducer, it never holds a whole row in
+ * memory.
+ */
+public class StreamingKeyValueReducer extends Reducer<ImmutableBytesWritable, KeyValue, ImmutableBytesWritable, KeyValue> {
+
+    private final ImmutableBytesWritable row = new ImmutableBytesWritable();
+
+    @Override
+    protected void reduce(ImmutableBytesWritable key, Iterable<KeyValue> kvs, Context context) throws IOException, InterruptedException {
+        for (KeyValue kv : kvs) {
+            row.set(kv.getBuffer(), kv.getRowOffset(), kv.getRowLength());
+            context.write(row, kv);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Sorts map output keys holding the index of a table (one byte) followed by
+ * the whole key of a KeyValue, by table and then as KeyValueKeyComparator
+ * does, when KeyValues of many tables are written by a job.
+ */
+public class TableKeyValueKeyComparator extends WritableComparator {
+
+    // serialized ImmutableBytesWritable starts with the length of the bytes
+    private static final int LENGTH_SIZE = 4;
+    private static final int TABLE_SIZE = 1;
+
+    public TableKeyValueKeyComparator() {
+        super(ImmutableBytesWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        return compareKeys(b1, s1 + LENGTH_SIZE, l1 - LENGTH_SIZE, b2, s2 + LENGTH_SIZE, l2 - LENGTH_SIZE);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int compare(WritableComparable a, WritableComparable b) {
+        ImmutableBytesWritable left = (ImmutableBytesWritable) a;
+        ImmutableBytesWritable right = (ImmutableBytesWritable) b;
+        return compareKeys(left.get(), left.getOffset(), left.getLength(),
+                right.get(), right.getOffset(), right.getLength());
+    }
+
+    private static int compareKeys(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        int table1 = getTable(b1, s1);
+        int table2 = getTable(b2, s2);
+        if (table1 != table2) {
+            return table1 < table2 ? -1 : 1;
+        }
+        return KeyValue.KEY_COMPARATOR.compare(
+                b1, s1 + TABLE_SIZE, l1 - TABLE_SIZE,
+                b2, s2 + TABLE_SIZE, l2 - TABLE_SIZE);
+    }
+
+    /**
+     * Returns the index of the table of the key stored at the offset.
+     */
+    public static int getTable(byte[] key, int offset) {
+        return key[offset] & 0xff;
+    }
+}
@@ -0,0 +1,35 @@
+package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
+
+import java.io.IOException;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.mapreduce.Reducer;
+import pl.edu.icm.coansys.richimporttsv.io.MultiTableHFileOutputFormat;
+
+/**
+ * Writes KeyValues of many tables, sorted by the shuffle (see
+ * TableKeyValueKeyComparator), one by one as StreamingKeyValueReducer does,
+ * keyed by the name of their table for MultiTableHFileOutputFormat.
+ */
+public class TableKeyValueReducer extends Reducer<ImmutableBytesWritable, KeyValue, ImmutableBytesWritable, KeyValue> {
+
+    private ImmutableBytesWritable[] tableNames;
+
+    @Override
+    protected void setup(Context context) {
+        String[] tables = MultiTableHFileOutputFormat.getTables(context.getConfiguration());
+        tableNames = new ImmutableBytesWritable[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            tableNames[i] = new ImmutableBytesWritable(Bytes.toBytes(tables[i]));
+        }
+    }
+
+    @Override
+    protected void reduce(ImmutableBytesWritable key, Iterable<KeyValue> kvs, Context context) throws IOException, InterruptedException {
+        ImmutableBytesWritable table = tableNames[TableKeyValueKeyComparator.getTable(key.get(), key.getOffset())];
+        for (KeyValue kv : kvs) {
+            context.write(table, kv);
+        }
+    }
+}
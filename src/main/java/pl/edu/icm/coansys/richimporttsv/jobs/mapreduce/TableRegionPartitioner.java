@@ -0,0 +1,64 @@
+package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.mapreduce.Partitioner;
+import pl.edu.icm.coansys.richimporttsv.io.MultiTableHFileOutputFormat;
+import pl.edu.icm.coansys.richimporttsv.io.RegionStartKeys;
+
+/**
+ * Sends each KeyValue of one of many tables (see TableKeyValueKeyComparator)
+ * to the reducer of the region its row belongs to. The reducers are numbered
+ * by table and region, so that each of them writes the HFiles of a single
+ * region of a single table.
+ */
+public class TableRegionPartitioner extends Partitioner<ImmutableBytesWritable, KeyValue> implements Configurable {
+
+    private Configuration conf;
+    private byte[][][] startKeys;
+    // number of the first reducer of each table
+    private int[] firstPartitions;
+
+    @Override
+    public int getPartition(ImmutableBytesWritable key, KeyValue kv, int numPartitions) {
+        int table = TableKeyValueKeyComparator.getTable(key.get(), key.getOffset());
+        int region = 0;
+        if (startKeys[table].length > 0) {
+            region = RegionStartKeys.getRegion(startKeys[table], kv.getBuffer(), kv.getRowOffset(), kv.getRowLength());
+        }
+        return Math.min(firstPartitions[table] + region, numPartitions - 1);
+    }
+
+    /**
+     * Returns the number of reducers needed, i.e. of the regions of all the
+     * tables.
+     */
+    public static int getPartitionCount(Configuration conf) {
+        int partitions = 0;
+        for (String table : MultiTableHFileOutputFormat.getTables(conf)) {
+            partitions += Math.max(1, RegionStartKeys.get(conf, table).length);
+        }
+        return partitions;
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        String[] tables = MultiTableHFileOutputFormat.getTables(conf);
+        startKeys = new byte[tables.length][][];
+        firstPartitions = new int[tables.length];
+        int partitions = 0;
+        for (int i = 0; i < tables.length; i++) {
+            startKeys[i] = RegionStartKeys.get(conf, tables[i]);
+            firstPartitions[i] = partitions;
+            partitions += Math.max(1, startKeys[i].length);
+        }
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+}
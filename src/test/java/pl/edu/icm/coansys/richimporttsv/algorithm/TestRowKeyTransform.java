@@ -0,0 +1,88 @@
+package pl.edu.icm.coansys.richimporttsv.algorithm;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TestRowKeyTransform {
+
+    private static byte[] transform(RowKeyTransform transform, String key) {
+        byte[] bytes = Bytes.toBytes("#" + key + "#");
+        transform.transform(bytes, 1, bytes.length - 2);
+        return Bytes.head(transform.getBuffer(), transform.getLength());
+    }
+
+    // the index of the region (split at the keys) the key falls into
+    private static int region(byte[][] splitKeys, byte[] key) {
+        int region = 0;
+        while (region < splitKeys.length && Bytes.compareTo(key, splitKeys[region]) >= 0) {
+            region++;
+        }
+        return region;
+    }
+
+    private static void assertSpread(RowKeyTransform transform, int regions) {
+        byte[][] splitKeys = transform.getSplitKeys();
+        assertEquals(regions - 1, splitKeys.length);
+        for (int i = 1; i < splitKeys.length; i++) {
+            assertTrue(Bytes.compareTo(splitKeys[i - 1], splitKeys[i]) < 0);
+        }
+        int[] counts = new int[regions];
+        for (int id = 1000000; id < 1001000; id++) {
+            counts[region(splitKeys, transform(transform, String.valueOf(id)))]++;
+        }
+        for (int count : counts) {
+            assertTrue(count > 1000 / regions / 2);
+        }
+    }
+
+    @Test
+    public void testSalt() {
+        RowKeyTransform salt = RowKeyTransform.compile(RowKeyTransform.SALT, 16, 4);
+        byte[] key = transform(salt, "1000000");
+        assertEquals(8, key.length);
+        assertTrue(key[0] >= 0 && key[0] < 16);
+        assertEquals("1000000", Bytes.toString(key, 1, 7));
+        // the same key always gets the same bucket
+        assertArrayEquals(key, transform(salt, "1000000"));
+        assertSpread(salt, 16);
+
+        byte[] wide = transform(RowKeyTransform.compile(RowKeyTransform.SALT, 1000, 4), "1000000");
+        assertEquals(9, wide.length);
+        assertTrue(Bytes.toShort(wide, 0) < 1000);
+    }
+
+    @Test
+    public void testReverse() {
+        RowKeyTransform reverse = RowKeyTransform.compile(RowKeyTransform.REVERSE, 16, 4);
+        assertEquals("0000001", Bytes.toString(transform(reverse, "1000000")));
+        assertEquals("", Bytes.toString(transform(reverse, "")));
+        assertEquals(0, reverse.getSplitKeys().length);
+    }
+
+    @Test
+    public void testHashPrefix() {
+        RowKeyTransform hash = RowKeyTransform.compile(RowKeyTransform.HASH, 8, 2);
+        byte[] key = transform(hash, "1000000");
+        assertEquals(9, key.length);
+        assertEquals("1000000", Bytes.toString(key, 2, 7));
+        assertSpread(hash, 8);
+    }
+
+    @Test
+    public void testBufferIsReused() {
+        RowKeyTransform salt = RowKeyTransform.compile(RowKeyTransform.SALT, 16, 4);
+        transform(salt, "1");
+        byte[] buffer = salt.getBuffer();
+        transform(salt, "1000000");
+        assertSame(buffer, salt.getBuffer());
+        // grown for a long key
+        transform(salt, new String(new char[100]).replace('\0', 'x'));
+        assertEquals(101, salt.getLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownTransform() {
+        RowKeyTransform.compile("rot13", 16, 4);
+    }
+}
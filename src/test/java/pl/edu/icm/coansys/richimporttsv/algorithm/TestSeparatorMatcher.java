@@ -0,0 +1,119 @@
+package pl.edu.icm.coansys.richimporttsv.algorithm;
+
+import java.util.Random;
+import org.apache.hadoop.hbase.util.Bytes;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TestSeparatorMatcher {
+
+    private static int naiveIndexOf(byte[] text, int from, int to, byte[] pattern) {
+        for (int i = from; i + pattern.length <= to; i++) {
+            int j = 0;
+            while (j < pattern.length && text[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return SeparatorMatcher.FAILURE;
+    }
+
+    // the first, and of those starting together the longest, occurrence of any pattern
+    private static int[] naiveIndexOf(byte[] text, int from, int to, byte[][] patterns) {
+        for (int i = from; i < to; i++) {
+            int longest = 0;
+            for (byte[] pattern : patterns) {
+                if (pattern.length > longest && naiveIndexOf(text, i, to, pattern) == i) {
+                    longest = pattern.length;
+                }
+            }
+            if (longest > 0) {
+                return new int[]{i, longest};
+            }
+        }
+        return new int[]{SeparatorMatcher.FAILURE, 0};
+    }
+
+    @Test
+    public void testCompileChoosesStrategy() {
+        assertTrue(SeparatorMatcher.compile(Bytes.toBytes("#")) instanceof SingleByteMatcher);
+        assertTrue(SeparatorMatcher.compile(Bytes.toBytes("\n\n")) instanceof TwoByteMatcher);
+        assertTrue(SeparatorMatcher.compile(Bytes.toBytes("###")) instanceof HorspoolMatcher);
+        assertTrue(SeparatorMatcher.compile(new byte[][]{Bytes.toBytes("#")}) instanceof SingleByteMatcher);
+        assertTrue(SeparatorMatcher.compile(new byte[][]{Bytes.toBytes("#"), Bytes.toBytes("|")}) instanceof AhoCorasickMatcher);
+    }
+
+    @Test
+    public void testParseAlternatives() {
+        byte[][] separators = SeparatorMatcher.parseAlternatives("\n\n,\r\n\r\n,\\,|\\\\");
+        assertEquals(3, separators.length);
+        assertEquals("\n\n", Bytes.toString(separators[0]));
+        assertEquals("\r\n\r\n", Bytes.toString(separators[1]));
+        assertEquals(",|\\", Bytes.toString(separators[2]));
+        assertEquals(1, SeparatorMatcher.parseAlternatives("\t").length);
+    }
+
+    @Test
+    public void testAlternativesAgainstNaiveSearch() {
+        Random random = new Random(0);
+        byte[] alphabet = new byte[]{'a', 'b', '#', (byte) 0xff};
+        for (int round = 0; round < 10000; round++) {
+            byte[][] patterns = new byte[2 + random.nextInt(3)][];
+            for (int p = 0; p < patterns.length; p++) {
+                patterns[p] = new byte[1 + random.nextInt(4)];
+                for (int i = 0; i < patterns[p].length; i++) {
+                    patterns[p][i] = alphabet[random.nextInt(alphabet.length)];
+                }
+            }
+            byte[] text = new byte[random.nextInt(30)];
+            for (int i = 0; i < text.length; i++) {
+                text[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+            int from = random.nextInt(text.length + 1);
+            int to = from + random.nextInt(text.length - from + 1);
+
+            int[] expected = naiveIndexOf(text, from, to, patterns);
+            SeparatorMatcher matcher = new AhoCorasickMatcher(patterns);
+            assertEquals(expected[0], matcher.indexOf(text, from, to));
+            if (expected[0] != SeparatorMatcher.FAILURE) {
+                assertEquals(expected[1], matcher.getMatchLength());
+            }
+        }
+    }
+
+    @Test
+    public void testIndexOfWithinRange() {
+        byte[] text = Bytes.toBytes("KEY1...VALUE1...VALUE2");
+        SeparatorMatcher matcher = SeparatorMatcher.compile(Bytes.toBytes("..."));
+        assertEquals(4, matcher.indexOf(text, 0, text.length));
+        assertEquals(13, matcher.indexOf(text, 5, text.length));
+        // an occurrence crossing the end of the range is not a match
+        assertEquals(SeparatorMatcher.FAILURE, matcher.indexOf(text, 5, 15));
+        assertEquals(3, matcher.getMatchLength());
+    }
+
+    @Test
+    public void testAgainstNaiveSearch() {
+        Random random = new Random(0);
+        byte[] alphabet = new byte[]{'a', 'b', '#', (byte) 0xff};
+        for (int round = 0; round < 10000; round++) {
+            byte[] pattern = new byte[1 + random.nextInt(5)];
+            for (int i = 0; i < pattern.length; i++) {
+                pattern[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+            byte[] text = new byte[random.nextInt(30)];
+            for (int i = 0; i < text.length; i++) {
+                text[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+            int from = random.nextInt(text.length + 1);
+            int to = from + random.nextInt(text.length - from + 1);
+
+            int expected = naiveIndexOf(text, from, to, pattern);
+            assertEquals(expected, SeparatorMatcher.compile(pattern).indexOf(text, from, to));
+            assertEquals(expected, new KMPMatcher(pattern).indexOf(text, from, to));
+            assertEquals(expected, new HorspoolMatcher(pattern).indexOf(text, from, to));
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package pl.edu.icm.coansys.richimporttsv.algorithm;
+
+import static org.junit.Assert.assertEquals;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+public class TestTagDispatchTable {
+
+    private static int get(TagDispatchTable table, String tag) {
+        byte[] bytes = Bytes.toBytes("  " + tag + " ");
+        return table.get(bytes, 2, bytes.length - 3);
+    }
+
+    @Test
+    public void testGet() {
+        String[] tags = {"REVISION", "CATEGORY", "IMAGE", "MAIN", "TALK", "USER", "USER_TALK", "OTHER",
+            "EXTERNAL", "TEMPLATE", "COMMENT", "MINOR", "TEXTDATA"};
+        byte[][] tagBytes = new byte[tags.length + 1][];
+        for (int i = 0; i < tags.length; i++) {
+            tagBytes[i] = Bytes.toBytes(tags[i]);
+        }
+        TagDispatchTable table = new TagDispatchTable(tagBytes);
+
+        for (int i = 0; i < tags.length; i++) {
+            assertEquals(i, get(table, tags[i]));
+        }
+        assertEquals(TagDispatchTable.NOT_FOUND, get(table, "USER_"));
+        assertEquals(TagDispatchTable.NOT_FOUND, get(table, "MAIM"));
+        assertEquals(TagDispatchTable.NOT_FOUND, get(table, ""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicatedTags() {
+        new TagDispatchTable(new byte[][]{Bytes.toBytes("A"), Bytes.toBytes("B"), Bytes.toBytes("A")});
+    }
+}
@@ -0,0 +1,88 @@
+package pl.edu.icm.coansys.richimporttsv.algorithm;
+
+import java.text.SimpleDateFormat;
+import java.util.Random;
+import java.util.TimeZone;
+import org.apache.hadoop.hbase.util.Bytes;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TestValueEncoding {
+
+    private static byte[] encode(String type, String value) {
+        byte[] bytes = Bytes.toBytes("#" + value + "#");
+        byte[] buffer = new byte[ValueEncoding.MAX_LENGTH];
+        int length = ValueEncoding.compile(type).encode(bytes, 1, bytes.length - 2, buffer);
+        return length == ValueEncoding.FAILURE ? null : Bytes.head(buffer, length);
+    }
+
+    private static long encodeDate(String value) {
+        byte[] encoded = encode(ValueEncoding.ISO8601_LONG, value);
+        assertNotNull(value, encoded);
+        return Bytes.toLong(encoded);
+    }
+
+    @Test
+    public void testIntegers() {
+        assertArrayEquals(Bytes.toBytes(4781981), encode(ValueEncoding.INT, "4781981"));
+        assertArrayEquals(Bytes.toBytes(-12), encode(ValueEncoding.INT, "-12"));
+        assertArrayEquals(Bytes.toBytes(Integer.MIN_VALUE), encode(ValueEncoding.INT, "-2147483648"));
+        assertArrayEquals(Bytes.toBytes(Integer.MAX_VALUE), encode(ValueEncoding.INT, "+2147483647"));
+        assertArrayEquals(Bytes.toBytes(Long.MIN_VALUE), encode(ValueEncoding.LONG, "-9223372036854775808"));
+        assertArrayEquals(Bytes.toBytes((short) 7), encode(ValueEncoding.SHORT, "7"));
+
+        assertNull(encode(ValueEncoding.INT, "2147483648"));
+        assertNull(encode(ValueEncoding.LONG, "9223372036854775808"));
+        assertNull(encode(ValueEncoding.SHORT, "40000"));
+        assertNull(encode(ValueEncoding.INT, ""));
+        assertNull(encode(ValueEncoding.INT, "-"));
+        assertNull(encode(ValueEncoding.INT, "12a"));
+        assertNull(encode(ValueEncoding.INT, " 12"));
+    }
+
+    @Test
+    public void testOtherTypes() {
+        assertArrayEquals(Bytes.toBytes(true), encode(ValueEncoding.BOOLEAN, "TRUE"));
+        assertArrayEquals(Bytes.toBytes(true), encode(ValueEncoding.BOOLEAN, "1"));
+        assertArrayEquals(Bytes.toBytes(false), encode(ValueEncoding.BOOLEAN, "false"));
+        assertNull(encode(ValueEncoding.BOOLEAN, "yes"));
+        assertNull(encode(ValueEncoding.BOOLEAN, "\u0011"));
+        assertNull(encode(ValueEncoding.BOOLEAN, "\u0010"));
+        assertArrayEquals(Bytes.toBytes(2.5), encode(ValueEncoding.DOUBLE, "2.5"));
+        assertArrayEquals(Bytes.toBytes(-1e3f), encode(ValueEncoding.FLOAT, "-1e3"));
+        assertNull(encode(ValueEncoding.DOUBLE, "2,5"));
+    }
+
+    @Test
+    public void testIso8601() throws Exception {
+        assertEquals(0, encodeDate("1970-01-01"));
+        assertEquals(1014651791000L, encodeDate("2002-02-25T15:43:11Z"));
+        assertEquals(1014651791000L, encodeDate("2002-02-25 16:43:11+01:00"));
+        assertEquals(1014651791000L, encodeDate("2002-02-25T10:13:11-0530"));
+        assertEquals(1014651791123L, encodeDate("2002-02-25T15:43:11.12345"));
+        assertEquals(1014651780000L, encodeDate("2002-02-25T15:43"));
+        assertEquals(-86400000L, encodeDate("1969-12-31"));
+
+        assertNull(encode(ValueEncoding.ISO8601_LONG, "2002-02-29"));
+        assertNull(encode(ValueEncoding.ISO8601_LONG, "2002-13-01"));
+        assertNull(encode(ValueEncoding.ISO8601_LONG, "2002-02-25T24:00"));
+        assertNull(encode(ValueEncoding.ISO8601_LONG, "2002-02-25T15:43:11X"));
+        assertNull(encode(ValueEncoding.ISO8601_LONG, "2002-02-25T15"));
+        assertNull(encode(ValueEncoding.ISO8601_LONG, "25.02.2002"));
+
+        // against the JDK, for random dates and times since 1900 (the JDK
+        // switches to the Julian calendar before 1582)
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            long millis = (random.nextLong() >>> 1) % (400L * 365 * 24 * 3600 * 1000) - 70L * 365 * 24 * 3600 * 1000;
+            assertEquals(millis, encodeDate(format.format(millis)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownType() {
+        ValueEncoding.compile("varchar");
+    }
+}
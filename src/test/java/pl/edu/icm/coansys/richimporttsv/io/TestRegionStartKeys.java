@@ -0,0 +1,41 @@
+package pl.edu.icm.coansys.richimporttsv.io;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TestRegionStartKeys {
+
+    private static int getRegion(byte[][] startKeys, String row) {
+        byte[] bytes = Bytes.toBytes(row);
+        return RegionStartKeys.getRegion(startKeys, bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void testGetRegion() {
+        byte[][] startKeys = new byte[][]{new byte[0], Bytes.toBytes("b"), Bytes.toBytes("d"), Bytes.toBytes("f")};
+        assertEquals(0, getRegion(startKeys, ""));
+        assertEquals(0, getRegion(startKeys, "a"));
+        assertEquals(1, getRegion(startKeys, "b"));
+        assertEquals(1, getRegion(startKeys, "c"));
+        assertEquals(2, getRegion(startKeys, "d"));
+        assertEquals(3, getRegion(startKeys, "f"));
+        assertEquals(3, getRegion(startKeys, "zzz"));
+
+        // a table with a single region
+        assertEquals(0, getRegion(new byte[][]{new byte[0]}, "a"));
+    }
+
+    @Test
+    public void testConfiguration() {
+        Configuration conf = new Configuration();
+        byte[][] startKeys = new byte[][]{new byte[0], new byte[]{0, (byte) 0xff, ','}, Bytes.toBytes("KEY2")};
+        RegionStartKeys.set(conf, startKeys);
+        byte[][] read = RegionStartKeys.get(conf);
+        assertEquals(startKeys.length, read.length);
+        for (int i = 0; i < startKeys.length; i++) {
+            assertArrayEquals(startKeys[i], read[i]);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package pl.edu.icm.coansys.richimporttsv.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TestRejectOutputFormat {
+
+    private final Configuration conf = new Configuration();
+    private final Path dir = new Path(System.getProperty("java.io.tmpdir"), "TestRejectOutputFormat");
+
+    private TaskAttemptContext createAttempt(int attempt) {
+        return new TaskAttemptContext(conf, TaskAttemptID.forName("attempt_201301010000_0001_m_000000_" + attempt));
+    }
+
+    private static void writeReject(TaskAttemptContext context, String record) throws IOException, InterruptedException {
+        RecordWriter<Text, Text> writer = new RejectOutputFormat().getRecordWriter(context);
+        writer.write(new Text("reason of " + record), new Text(record));
+        writer.close(context);
+    }
+
+    private static String read(FileSystem fs, Path path) throws IOException {
+        InputStream in = fs.open(path);
+        try {
+            return IOUtils.toString(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testCommit() throws Exception {
+        FileSystem fs = FileSystem.getLocal(conf);
+        fs.delete(dir, true);
+        conf.set(RejectOutputFormat.DIR_CONF_KEY, dir.toString());
+        OutputCommitter committer = new RejectOutputFormat.RejectOutputCommitter();
+
+        // an attempt without rejects has nothing to commit
+        assertFalse(committer.needsTaskCommit(createAttempt(0)));
+
+        // the rejects of a failed attempt are not published
+        TaskAttemptContext failed = createAttempt(1);
+        writeReject(failed, "failed");
+        assertFalse(fs.exists(new Path(dir, "rejects-m-00000")));
+        committer.abortTask(failed);
+
+        // the rejects of an attempt committed before are replaced
+        for (String record : new String[]{"first", "second"}) {
+            TaskAttemptContext attempt = createAttempt(record.equals("first") ? 2 : 3);
+            writeReject(attempt, record);
+            assertTrue(committer.needsTaskCommit(attempt));
+            committer.commitTask(attempt);
+        }
+        committer.commitJob(createAttempt(3));
+
+        assertEquals("second\n", read(fs, new Path(dir, "rejects-m-00000")));
+        assertEquals("reason of second\n", read(fs, new Path(new Path(dir, RejectOutputFormat.INFO_DIR_NAME), "rejects-m-00000")));
+        assertFalse(fs.exists(new Path(dir, RejectOutputFormat.TEMP_DIR_NAME)));
+        fs.delete(dir, true);
+    }
+}
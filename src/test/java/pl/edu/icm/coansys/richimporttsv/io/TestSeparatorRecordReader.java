@@ -0,0 +1,240 @@
+package pl.edu.icm.coansys.richimporttsv.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.util.ReflectionUtils;
+import pl.edu.icm.coansys.richimporttsv.algorithm.SeparatorMatcher;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TestSeparatorRecordReader {
+
+    private final Configuration conf = new Configuration();
+    private final Path path = new Path(System.getProperty("java.io.tmpdir"), "TestSeparatorRecordReader.dat");
+
+    private void writeInput(String content) throws IOException {
+        FSDataOutputStream out = FileSystem.getLocal(conf).create(path, true);
+        out.write(Bytes.toBytes(content));
+        out.close();
+    }
+
+    private List<String> readSplit(long start, long length) throws IOException, InterruptedException {
+        return readSplit(path, start, length);
+    }
+
+    private List<String> readSplit(Path path, long start, long length) throws IOException, InterruptedException {
+        SeparatorRecordReader reader = new SeparatorRecordReader();
+        reader.initialize(new FileSplit(path, start, length, null), conf);
+        List<String> records = new ArrayList<String>();
+        while (reader.nextKeyValue()) {
+            records.add(reader.getCurrentValue().toString());
+        }
+        reader.close();
+        return records;
+    }
+
+    private List<String> readInSplits(long length, long splitSize) throws IOException, InterruptedException {
+        List<String> records = new ArrayList<String>();
+        for (long start = 0; start < length; start += splitSize) {
+            records.addAll(readSplit(start, Math.min(splitSize, length - start)));
+        }
+        return records;
+    }
+
+    @Test
+    public void testRecords() throws IOException, InterruptedException {
+        conf.set(SeparatorRecordReader.RECORD_SEPARATOR_CONF_KEY, "###");
+        writeInput("KEY1...VALUE1###KEY2...VALUE2###KEY3...VALUE3a\nVALUE3b###KEY4...VALUE4");
+
+        List<String> records = readSplit(0, 71);
+        assertEquals(4, records.size());
+        assertEquals("KEY1...VALUE1", records.get(0));
+        assertEquals("KEY3...VALUE3a\nVALUE3b", records.get(2));
+        assertEquals("KEY4...VALUE4", records.get(3));
+    }
+
+    @Test
+    public void testEverySplitLayout() throws IOException, InterruptedException {
+        String[] separators = {"#", "##", "###", "#-#", "\n\n"};
+        String[] alphabets = {"xy\n", "xy\n", "xy\n", "xy\n", "xy#"};
+        Random random = new Random(0);
+
+        for (int round = 0; round < 200; round++) {
+            int s = random.nextInt(separators.length);
+            conf.set(SeparatorRecordReader.RECORD_SEPARATOR_CONF_KEY, separators[s]);
+            conf.setInt(SeparatorRecordReader.BUFFER_SIZE_CONF_KEY, 1 + random.nextInt(8));
+
+            List<String> expected = new ArrayList<String>();
+            StringBuilder content = new StringBuilder();
+            int recordCount = random.nextInt(6);
+            for (int r = 0; r < recordCount; r++) {
+                StringBuilder record = new StringBuilder();
+                int recordLength = random.nextInt(5);
+                for (int i = 0; i < recordLength; i++) {
+                    record.append(alphabets[s].charAt(random.nextInt(alphabets[s].length())));
+                }
+                content.append(record);
+                if (r < recordCount - 1 || random.nextBoolean()) {
+                    content.append(separators[s]);
+                } else if (recordLength == 0) {
+                    // nothing follows the last separator, so there is no record
+                    break;
+                }
+                expected.add(record.toString());
+            }
+            writeInput(content.toString());
+
+            for (int splitSize = 1; splitSize <= content.length(); splitSize++) {
+                assertEquals("input " + content + " split into " + splitSize + " bytes",
+                        expected, readInSplits(content.length(), splitSize));
+            }
+        }
+    }
+
+    @Test
+    public void testAlternativeSeparators() throws IOException, InterruptedException {
+        String[] separators = {"#,##", "\n\n,\r\n\r\n", "ab,b#,#", "#-#,-"};
+        String[] alphabets = {"x#", "x\r\n", "xab#", "x#-"};
+        Random random = new Random(0);
+
+        for (int round = 0; round < 200; round++) {
+            int s = random.nextInt(separators.length);
+            conf.set(SeparatorRecordReader.RECORD_SEPARATORS_CONF_KEY, separators[s]);
+            conf.setInt(SeparatorRecordReader.BUFFER_SIZE_CONF_KEY, 1 + random.nextInt(8));
+
+            StringBuilder content = new StringBuilder();
+            int length = random.nextInt(16);
+            for (int i = 0; i < length; i++) {
+                content.append(alphabets[s].charAt(random.nextInt(alphabets[s].length())));
+            }
+            writeInput(content.toString());
+
+            // the records of the whole file, as split by the matcher
+            SeparatorMatcher matcher = SeparatorMatcher.compile(SeparatorMatcher.parseAlternatives(separators[s]));
+            byte[] bytes = Bytes.toBytes(content.toString());
+            List<String> expected = new ArrayList<String>();
+            int from = 0;
+            int found;
+            while ((found = matcher.indexOf(bytes, from, bytes.length)) != SeparatorMatcher.FAILURE) {
+                expected.add(Bytes.toString(bytes, from, found - from));
+                from = found + matcher.getMatchLength();
+            }
+            if (from < bytes.length) {
+                expected.add(Bytes.toString(bytes, from, bytes.length - from));
+            }
+
+            for (int splitSize = 1; splitSize <= content.length(); splitSize++) {
+                assertEquals("input " + content + " split into " + splitSize + " bytes",
+                        expected, readInSplits(content.length(), splitSize));
+            }
+        }
+    }
+
+    @Test
+    public void testOversizeRecords() throws IOException, InterruptedException {
+        String[] separators = {"#", "##", "#-#"};
+        Random random = new Random(0);
+
+        for (int round = 0; round < 100; round++) {
+            String separator = separators[random.nextInt(separators.length)];
+            int maxLength = random.nextInt(4);
+            conf.set(SeparatorRecordReader.RECORD_SEPARATOR_CONF_KEY, separator);
+            conf.setInt(SeparatorRecordReader.BUFFER_SIZE_CONF_KEY, 1 + random.nextInt(4));
+            conf.setInt(SeparatorRecordReader.MAX_LENGTH_CONF_KEY, maxLength);
+
+            List<String> expected = new ArrayList<String>();
+            StringBuilder content = new StringBuilder();
+            int recordCount = 1 + random.nextInt(5);
+            for (int r = 0; r < recordCount; r++) {
+                StringBuilder record = new StringBuilder();
+                int recordLength = 1 + random.nextInt(12);
+                for (int i = 0; i < recordLength; i++) {
+                    record.append("xy".charAt(random.nextInt(2)));
+                }
+                content.append(record);
+                if (r < recordCount - 1) {
+                    content.append(separator);
+                }
+                if (recordLength <= maxLength) {
+                    expected.add(record.toString());
+                }
+            }
+            writeInput(content.toString());
+
+            for (int splitSize = 1; splitSize <= content.length(); splitSize++) {
+                assertEquals("input " + content + " split into " + splitSize + " bytes, max length " + maxLength,
+                        expected, readInSplits(content.length(), splitSize));
+            }
+        }
+    }
+
+    @Test
+    public void testIndexAlignedSplits() throws IOException, InterruptedException {
+        conf.set(SeparatorRecordReader.RECORD_SEPARATOR_CONF_KEY, "#");
+        writeInput("R1#RECORD2#R3#RECORD4#R5");
+        FileSystem fs = FileSystem.getLocal(conf);
+        new SeparatorIndex(Bytes.toBytes("#"), 24, new long[]{0, 3, 11, 14, 22}).write(fs, path);
+
+        Job job = new Job(conf);
+        FileInputFormat.addInputPath(job, path);
+        FileInputFormat.setMaxInputSplitSize(job, 4);
+        List<InputSplit> splits = new SeparatorInputFormat().getSplits(job);
+        fs.delete(SeparatorIndex.getIndexPath(path), false);
+
+        assertEquals(3, splits.size());
+        List<String> records = new ArrayList<String>();
+        for (InputSplit split : splits) {
+            FileSplit fileSplit = (FileSplit) split;
+            records.addAll(readSplit(fileSplit.getStart(), fileSplit.getLength()));
+        }
+        assertEquals(readSplit(0, 24), records);
+        assertEquals("R3", readSplit(((FileSplit) splits.get(1)).getStart(), 1).get(0));
+    }
+
+    @Test
+    public void testGzipInput() throws IOException, InterruptedException {
+        conf.set(SeparatorRecordReader.RECORD_SEPARATOR_CONF_KEY, "###");
+        CompressionCodec codec = ReflectionUtils.newInstance(GzipCodec.class, conf);
+        Path compressedPath = new Path(path.toString() + codec.getDefaultExtension());
+        OutputStream out = codec.createOutputStream(FileSystem.getLocal(conf).create(compressedPath, true));
+        out.write(Bytes.toBytes("KEY1...VALUE1###KEY2...VALUE2###KEY3...VALUE3"));
+        out.close();
+
+        long length = FileSystem.getLocal(conf).getFileStatus(compressedPath).getLen();
+        List<String> records = readSplit(compressedPath, 0, length);
+        assertEquals(3, records.size());
+        assertEquals("KEY1...VALUE1", records.get(0));
+        assertEquals("KEY3...VALUE3", records.get(2));
+    }
+
+    @Test
+    public void testProgress() throws IOException, InterruptedException {
+        conf.set(SeparatorRecordReader.RECORD_SEPARATOR_CONF_KEY, "#");
+        writeInput("A1#A2#A3#A4");
+
+        SeparatorRecordReader reader = new SeparatorRecordReader();
+        reader.initialize(new FileSplit(path, 0, 11, null), conf);
+        assertEquals(0f, reader.getProgress(), 0f);
+        reader.nextKeyValue();
+        reader.nextKeyValue();
+        assertEquals(6f / 11, reader.getProgress(), 0.001f);
+        while (reader.nextKeyValue()) {
+        }
+        assertEquals(1f, reader.getProgress(), 0f);
+        reader.close();
+    }
+}
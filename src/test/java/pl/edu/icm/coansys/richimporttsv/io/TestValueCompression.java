@@ -0,0 +1,112 @@
+package pl.edu.icm.coansys.richimporttsv.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.Arrays;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.compress.BlockDecompressorStream;
+import org.apache.hadoop.io.compress.zlib.BuiltInZlibDeflater;
+import org.apache.hadoop.io.compress.zlib.BuiltInZlibInflater;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TestValueCompression {
+
+    private static byte[] compress(ValueCompression compression, byte[] value) {
+        byte[] bytes = new byte[value.length + 2];
+        System.arraycopy(value, 0, bytes, 1, value.length);
+        int length = compression.compress(bytes, 1, value.length);
+        return Bytes.head(compression.getBuffer(), length);
+    }
+
+    private static byte[] text(int length) {
+        StringBuilder text = new StringBuilder();
+        while (text.length() < length) {
+            text.append("'''Anarchism''' is a [[political philosophy]] ");
+        }
+        return Bytes.toBytes(text.substring(0, length));
+    }
+
+    @Test
+    public void testDeflate() throws Exception {
+        Configuration conf = new Configuration();
+        ValueCompression compression = ValueCompression.compile(ValueCompression.DEFLATE, conf, 100);
+        for (int length : new int[]{1000, 100000, 300}) {
+            byte[] value = text(length);
+            byte[] cell = compress(compression, value);
+            assertEquals(ValueCompression.DEFLATE_ID, cell[0]);
+            assertEquals(length, Bytes.toInt(cell, 1));
+            assertTrue(cell.length < length / 2);
+            assertArrayEquals(value, ValueCompression.decompress(cell, conf));
+        }
+        compression.close();
+    }
+
+    /**
+     * Starts a new zlib stream with each chunk, as the decompressors of
+     * snappy and lz4 take each chunk on its own.
+     */
+    private static class ChunkInflater extends BuiltInZlibInflater {
+
+        @Override
+        public synchronized void setInput(byte[] b, int off, int len) {
+            if (finished()) {
+                reset();
+            }
+            super.setInput(b, off, len);
+        }
+    }
+
+    @Test
+    public void testBlockFraming() throws Exception {
+        // a zlib compressor stands for the native ones of snappy and lz4
+        ValueCompression compression = new ValueCompression.BlockCompression(
+                ValueCompression.SNAPPY, ValueCompression.SNAPPY_ID, 100, new BuiltInZlibDeflater(), 1000);
+        for (int length : new int[]{500, 1000, 4500}) {
+            byte[] value = text(length);
+            byte[] cell = compress(compression, value);
+            assertEquals(ValueCompression.SNAPPY_ID, cell[0]);
+            assertEquals(length, Bytes.toInt(cell, 1));
+
+            // the cell without its first byte is read back by the input stream of the codecs
+            DataInputStream in = new DataInputStream(new BlockDecompressorStream(
+                    new ByteArrayInputStream(cell, 1, cell.length - 1), new ChunkInflater(), 256));
+            byte[] read = new byte[length];
+            in.readFully(read);
+            assertEquals(-1, in.read());
+            in.close();
+            assertArrayEquals(value, read);
+        }
+        compression.close();
+    }
+
+    @Test
+    public void testStoredAsItIs() throws Exception {
+        Configuration conf = new Configuration();
+        ValueCompression compression = ValueCompression.compile(ValueCompression.DEFLATE, conf, 100);
+
+        // too short
+        byte[] value = text(99);
+        byte[] cell = compress(compression, value);
+        assertEquals(ValueCompression.NONE, cell[0]);
+        assertEquals(value.length + 1, cell.length);
+        assertArrayEquals(value, ValueCompression.decompress(cell, conf));
+
+        // does not shrink
+        value = new byte[5000];
+        new Random(0).nextBytes(value);
+        cell = compress(compression, value);
+        assertEquals(ValueCompression.NONE, cell[0]);
+        assertArrayEquals(value, Arrays.copyOfRange(cell, 1, cell.length));
+        assertArrayEquals(value, ValueCompression.decompress(cell, conf));
+
+        assertArrayEquals(new byte[0], ValueCompression.decompress(compress(compression, new byte[0]), conf));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCompression() {
+        ValueCompression.compile("bzip2", new Configuration(), 0);
+    }
+}
@@ -18,10 +18,12 @@ package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -40,6 +42,7 @@ import org.apache.hadoop.hbase.mapreduce.*;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.util.GenericOptionsParser;
+import pl.edu.icm.coansys.richimporttsv.io.AsyncPutWriter;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -71,6 +74,15 @@ public class TestRichImportTsv {
         }
     }
 
+    private static String read(FileSystem fs, Path path) throws IOException {
+        InputStream in = fs.open(path);
+        try {
+            return IOUtils.toString(in);
+        } finally {
+            in.close();
+        }
+    }
+
     private HTable createAndPopulateDefaultTable(String tableName, long rowCount) throws IOException, InterruptedException {
         HTable htable = UTIL.createTable(Bytes.toBytes(tableName), B_COLUMN_FAMILY);
         List<Row> putList = new ArrayList<Row>();
@@ -201,6 +213,64 @@ public class TestRichImportTsv {
         dropTable(tableInitName);
     }
 
+    @Test(timeout = 1800000)
+    public void testAsyncPutTableRichImportTsv() throws Exception {
+
+        String tableInitName = getCurrentDateAppended("testAsyncPutTableRichImportTsv");
+        String inputFileName = "InputFile.dat";
+
+        String[] args = new String[]{
+            "-Dimporttsv.record.separator=#",
+            "-Dimporttsv.separator=$",
+            "-Dimporttsv.put.async=true",
+            "-Dimporttsv.put.write.buffer=16",
+            "-Dimporttsv.columns=HBASE_ROW_KEY," + S_COLUMN_FAMILY + ":" + S_COLUMN_QUALIFIER,
+            tableInitName,
+            inputFileName
+        };
+
+        HTable htableImport = doMROnTableTest(inputFileName, S_COLUMN_FAMILY, tableInitName, "KEY1$VALUE\n1#KEY2$VALUE2#\nKEY3$VALUE3", args);
+
+        assertEquals(3, UTIL.countRows(htableImport));
+        Result key1 = htableImport.get(new Get(Bytes.toBytes("KEY1")));
+        assertNotNull(key1);
+        assertEquals("VALUE\n1", Bytes.toString(key1.getValue(B_COLUMN_FAMILY, B_COLUMN_QUALIFIER)));
+
+        dropTable(tableInitName);
+    }
+
+    @Test(timeout = 1800000)
+    public void testRejectDirRichImportTsv() throws Exception {
+
+        String tableInitName = getCurrentDateAppended("testRejectDirRichImportTsv");
+        String inputFileName = "InputFile.dat";
+        String rejectDirName = getCurrentDateAppended("richtsv-rejects");
+        FileSystem dfs = UTIL.getDFSCluster().getFileSystem();
+
+        Path qualifiedRejectDir = dfs.makeQualified(new Path(rejectDirName));
+        assertFalse(dfs.exists(qualifiedRejectDir));
+
+        String[] args = new String[]{
+            "-Dimporttsv.record.separator=#",
+            "-Dimporttsv.separator=$",
+            "-Dimporttsv.reject.dir=" + rejectDirName,
+            "-Dimporttsv.columns=HBASE_ROW_KEY," + S_COLUMN_FAMILY + ":" + S_COLUMN_QUALIFIER,
+            tableInitName,
+            inputFileName
+        };
+
+        HTable htableImport = doMROnTableTest(inputFileName, S_COLUMN_FAMILY, tableInitName, "KEY1$VALUE1#BAD#KEY3$VALUE3$EXTRA", args);
+
+        assertEquals(1, UTIL.countRows(htableImport));
+        Path rejects = new Path(qualifiedRejectDir, "rejects-m-00000");
+        assertEquals("BAD#KEY3$VALUE3$EXTRA#", read(dfs, rejects));
+        String info = read(dfs, new Path(new Path(qualifiedRejectDir, "_info"), "rejects-m-00000"));
+        assertTrue(info.contains("No delimiter"));
+        assertTrue(info.contains("Excessive columns"));
+
+        dropTable(tableInitName);
+    }
+
     @Test(timeout = 1800000)
     public void testTextInputFormatTableRichImportTsv() throws Exception {
 
@@ -227,6 +297,30 @@ public class TestRichImportTsv {
         dropTable(tableInitName);
     }
 
+    @Test(timeout = 1800000)
+    public void testAsyncPutWriterKeepsPutOrder() throws Exception {
+        String tableInitName = getCurrentDateAppended("testAsyncPutWriterKeepsPutOrder");
+        HTable htable = UTIL.createTable(Bytes.toBytes(tableInitName), B_COLUMN_FAMILY);
+        byte[] row = Bytes.toBytes("KEY1");
+        long ts = 1L;
+        int count = 200;
+
+        // every Put fills a buffer of its own, so that they are sent by several threads
+        AsyncPutWriter writer = new AsyncPutWriter(UTIL.getConfiguration(), tableInitName, 1, false, 4);
+        for (int i = 0; i < count; i++) {
+            Put put = new Put(row);
+            put.add(B_COLUMN_FAMILY, B_COLUMN_QUALIFIER, ts, Bytes.toBytes("VALUE" + i));
+            writer.put(put);
+        }
+        writer.close();
+
+        assertEquals(count, writer.getFlushedPuts());
+        Result key1 = htable.get(new Get(row));
+        assertEquals("VALUE" + (count - 1), Bytes.toString(key1.getValue(B_COLUMN_FAMILY, B_COLUMN_QUALIFIER)));
+
+        dropTable(tableInitName);
+    }
+
     @Test
     public void testDirRichImportTsv() throws Exception {
         String tableInitName = getCurrentDateAppended("testDirRichImportTsv");
@@ -252,6 +346,45 @@ public class TestRichImportTsv {
         assertTrue(dfs.exists(qualifiedOutputDir));
     }
 
+    @Test(timeout = 1800000)
+    public void testPresortedDirRichImportTsv() throws Exception {
+        String tableInitName = getCurrentDateAppended("testPresortedDirRichImportTsv");
+        String inputFileName = "InputFile.dat";
+        String outputDirName = getCurrentDateAppended("richtsv-presorted-output");
+        FileSystem dfs = UTIL.getDFSCluster().getFileSystem();
+
+        Path qualifiedOutputDir = dfs.makeQualified(new Path(outputDirName));
+        assertFalse(dfs.exists(qualifiedOutputDir));
+
+        // Prepare the arguments required for the test.
+        String[] args = new String[]{
+            "-Dimporttsv.record.separator=#",
+            "-Dimporttsv.separator=$",
+            "-Dimporttsv.columns=HBASE_ROW_KEY," + S_COLUMN_FAMILY + ":" + S_COLUMN_QUALIFIER2 + "," + S_COLUMN_FAMILY + ":" + S_COLUMN_QUALIFIER,
+            "-Dimporttsv.bulk.output=" + outputDirName,
+            "-Dimporttsv.bulk.presorted=true",
+            tableInitName,
+            inputFileName
+        };
+
+        HTable htableImport = doMROnTableTest(inputFileName, S_COLUMN_FAMILY, tableInitName,
+                "KEY1$VALUE1b$VALUE1#KEY2$VALUE2b$VALUE2#KEY3$VALUE3b$VALUE3", args);
+
+        assertTrue(dfs.exists(new Path(qualifiedOutputDir, S_COLUMN_FAMILY)));
+
+        // the HFiles written by the mappers are bulk loaded and their rows read back in order
+        new LoadIncrementalHFiles(UTIL.getConfiguration()).doBulkLoad(qualifiedOutputDir, htableImport);
+        assertEquals(3, UTIL.countRows(htableImport));
+        Result key1 = htableImport.get(new Get(Bytes.toBytes("KEY1")));
+        assertEquals("VALUE1", Bytes.toString(key1.getValue(B_COLUMN_FAMILY, B_COLUMN_QUALIFIER)));
+        assertEquals("VALUE1b", Bytes.toString(key1.getValue(B_COLUMN_FAMILY, B_COLUMN_QUALIFIER2)));
+        Result key3 = htableImport.get(new Get(Bytes.toBytes("KEY3")));
+        assertEquals("VALUE3", Bytes.toString(key3.getValue(B_COLUMN_FAMILY, B_COLUMN_QUALIFIER)));
+        assertEquals("VALUE3b", Bytes.toString(key3.getValue(B_COLUMN_FAMILY, B_COLUMN_QUALIFIER2)));
+
+        dropTable(tableInitName);
+    }
+
     private HTable doMROnTableTest(String inputFile, String family, String tableName, String line, String[] args) throws Exception {
 
         GenericOptionsParser opts = new GenericOptionsParser(UTIL.getConfiguration(), args);
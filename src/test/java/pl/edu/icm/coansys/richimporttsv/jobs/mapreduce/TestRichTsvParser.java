@@ -0,0 +1,251 @@
+package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
+
+import java.lang.management.ManagementFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import pl.edu.icm.coansys.richimporttsv.algorithm.SeparatorMatcher;
+import pl.edu.icm.coansys.richimporttsv.io.ValueCompression;
+import pl.edu.icm.coansys.richimporttsv.jobs.mapreduce.RichImportTsv.RichTsvParser;
+import pl.edu.icm.coansys.richimporttsv.jobs.mapreduce.RichImportTsv.RichTsvParser.BadTsvLineException;
+
+public class TestRichTsvParser {
+
+    private static String column(RichTsvParser.ParsedLine parsed, int idx) {
+        return Bytes.toString(parsed.getLineBytes(), parsed.getColumnOffset(idx), parsed.getColumnLength(idx));
+    }
+
+    private static String parseError(RichTsvParser parser, String line) {
+        byte[] lineBytes = Bytes.toBytes(line);
+        try {
+            parser.parse(lineBytes, lineBytes.length);
+        } catch (BadTsvLineException e) {
+            return e.getMessage();
+        }
+        return null;
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        RichTsvParser parser = new RichTsvParser("HBASE_ROW_KEY,cf:cqA,cf:cqB", "...");
+        byte[] lineBytes = Bytes.toBytes("KEY1...VALUE1a...VALUE1b###garbage");
+
+        RichTsvParser.ParsedLine parsed = parser.parse(lineBytes, lineBytes.length - "###garbage".length());
+        assertEquals(3, parsed.getColumnCount());
+        assertEquals("KEY1", Bytes.toString(lineBytes, parsed.getRowKeyOffset(), parsed.getRowKeyLength()));
+        assertEquals("VALUE1a", column(parsed, 1));
+        assertEquals("VALUE1b", column(parsed, 2));
+    }
+
+    @Test
+    public void testBadLines() {
+        RichTsvParser parser = new RichTsvParser("cf:cq,HBASE_ROW_KEY", "$");
+        assertEquals("No delimiter", parseError(parser, "VALUE"));
+        assertEquals("Excessive columns", parseError(parser, "VALUE$KEY$MORE"));
+        assertNull(parseError(parser, "VALUE$KEY"));
+    }
+
+    @Test
+    public void testIgnoredColumns() throws Exception {
+        RichTsvParser parser = new RichTsvParser("_,HBASE_ROW_KEY,_,cf:cq,_,_", "$");
+        assertFalse(parser.isValueColumn(0));
+        assertFalse(parser.isValueColumn(1));
+        assertFalse(parser.isValueColumn(2));
+        assertTrue(parser.isValueColumn(3));
+        assertFalse(parser.isValueColumn(4));
+
+        // the columns after the last needed one are not delimited, nor counted
+        byte[] lineBytes = Bytes.toBytes("X$KEY$Y$VALUE$Z$T$EXCESSIVE");
+        RichTsvParser.ParsedLine parsed = parser.parse(lineBytes, lineBytes.length);
+        assertEquals(5, parsed.getColumnCount());
+        assertEquals("KEY", Bytes.toString(lineBytes, parsed.getRowKeyOffset(), parsed.getRowKeyLength()));
+        assertEquals("VALUE", column(parsed, 3));
+        assertEquals("Z$T$EXCESSIVE", column(parsed, 4));
+
+        assertEquals("No delimiter", parseError(parser, "X"));
+        assertNull(parseError(parser, "X$KEY$Y$VALUE"));
+    }
+
+    @Test
+    public void testAlternativeSeparators() throws Exception {
+        RichTsvParser parser = new RichTsvParser("HBASE_ROW_KEY,cf:a,cf:b,cf:c",
+                SeparatorMatcher.parseAlternatives("\t,|,||"), null);
+        byte[] lineBytes = Bytes.toBytes("KEY|A\tB||C");
+        RichTsvParser.ParsedLine parsed = parser.parse(lineBytes, lineBytes.length);
+        assertEquals("KEY", Bytes.toString(lineBytes, parsed.getRowKeyOffset(), parsed.getRowKeyLength()));
+        assertEquals("A", column(parsed, 1));
+        // the longest of the separators starting at the same byte is taken
+        assertEquals("B", column(parsed, 2));
+        assertEquals("C", column(parsed, 3));
+    }
+
+    @Test
+    public void testTaggedFields() throws Exception {
+        RichTsvParser parser = new RichTsvParser("ID=HBASE_ROW_KEY,A=cf:a,B=cf:b,C=_", "$", ":");
+        assertFalse(parser.isValueColumn(3));
+
+        // fields in any order, unknown tags dropped, missing fields left out
+        byte[] lineBytes = Bytes.toBytes("B:VB$X:VX$ID:KEY$C:VC");
+        RichTsvParser.ParsedLine parsed = parser.parse(lineBytes, lineBytes.length);
+        assertEquals("KEY", Bytes.toString(lineBytes, parsed.getRowKeyOffset(), parsed.getRowKeyLength()));
+        assertFalse(parsed.hasColumn(1));
+        assertTrue(parsed.hasColumn(2));
+        assertEquals("VB", column(parsed, 2));
+
+        // the columns of the previous record are not kept
+        lineBytes = Bytes.toBytes("ID:KEY2$A:V:A$B");
+        parsed = parser.parse(lineBytes, lineBytes.length);
+        assertEquals("V:A", column(parsed, 1));
+        assertEquals("", column(parsed, 2));
+        assertFalse(parsed.hasColumn(3));
+
+        assertEquals("No row key", parseError(parser, "A:VA$B:VB"));
+    }
+
+    @Test
+    public void testTables() {
+        RichTsvParser parser = new RichTsvParser("HBASE_ROW_KEY,m:a,idx/m:b,m:c/d,other/m", "$");
+        parser.setIndexes("titles=m:a, byb=idx/m:b");
+        assertEquals(5, parser.getTableCount());
+        assertNull(parser.getTableName(0));
+        assertEquals(0, parser.getTable(1));
+        assertEquals(1, parser.getTable(2));
+        assertEquals("idx", parser.getTableName(1));
+        assertEquals("b", Bytes.toString(parser.getQualifier(2)));
+        // a slash in the qualifier does not name a table
+        assertEquals(0, parser.getTable(3));
+        assertEquals("c/d", Bytes.toString(parser.getQualifier(3)));
+        assertEquals(2, parser.getTable(4));
+        assertEquals("m", Bytes.toString(parser.getFamily(4)));
+
+        assertEquals(2, parser.getIndexCount());
+        assertEquals(1, parser.getIndexColumn(0));
+        assertEquals("titles", parser.getTableName(parser.getIndexTable(0)));
+        assertEquals(2, parser.getIndexColumn(1));
+        assertEquals("byb", parser.getTableName(parser.getIndexTable(1)));
+    }
+
+    @Test
+    public void testTypedColumns() throws Exception {
+        RichTsvParser parser = new RichTsvParser("HBASE_ROW_KEY,m:rev:long,m:a:b,m::int,m:ts:iso8601->long", "$");
+        assertTrue(parser.isTypedColumn(1));
+        assertEquals("rev", Bytes.toString(parser.getQualifier(1)));
+        // an unknown type is a part of the qualifier
+        assertFalse(parser.isTypedColumn(2));
+        assertEquals("a:b", Bytes.toString(parser.getQualifier(2)));
+        assertTrue(parser.isTypedColumn(3));
+        assertEquals("", Bytes.toString(parser.getQualifier(3)));
+
+        byte[] lineBytes = Bytes.toBytes("4781981$x");
+        assertEquals(8, parser.encodeValue(1, lineBytes, 0, 7));
+        assertEquals(4781981L, Bytes.toLong(Bytes.head(parser.getValueBuffer(), 8)));
+        try {
+            parser.encodeValue(4, lineBytes, 0, 7);
+            fail();
+        } catch (BadTsvLineException e) {
+            assertEquals("Bad iso8601->long value", e.getMessage());
+        }
+
+        // indexes name the columns without their types
+        parser.setIndexes("revisions=m:rev");
+        assertEquals(1, parser.getIndexColumn(0));
+    }
+
+    @Test
+    public void testCompressedColumns() throws Exception {
+        RichTsvParser parser = new RichTsvParser("HBASE_ROW_KEY,t:text:deflate,m:title", "$");
+        assertTrue(parser.isCompressedColumn(1));
+        assertFalse(parser.isTypedColumn(1));
+        assertEquals("text", Bytes.toString(parser.getQualifier(1)));
+        assertFalse(parser.isCompressedColumn(2));
+
+        parser.setCompressions(new Configuration(), 0);
+        byte[] lineBytes = Bytes.toBytes("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa$x");
+        int length = parser.compressValue(1, lineBytes, 0, 40);
+        byte[] cell = Bytes.head(parser.getCompressionBuffer(1), length);
+        assertEquals(ValueCompression.DEFLATE_ID, cell[0]);
+        assertArrayEquals(Bytes.head(lineBytes, 40), ValueCompression.decompress(cell, new Configuration()));
+    }
+
+    @Test
+    public void testExplodedColumns() throws Exception {
+        RichTsvParser parser = new RichTsvParser("HBASE_ROW_KEY,cat:*,m:link*,m:id[]:int,m:title", "$");
+        assertTrue(parser.hasExplodedColumns());
+        assertEquals(RichTsvParser.ELEMENT_QUALIFIERS, parser.getExplode(1));
+        assertEquals("", Bytes.toString(parser.getQualifier(1)));
+        assertEquals(RichTsvParser.ELEMENT_QUALIFIERS, parser.getExplode(2));
+        assertEquals("link", Bytes.toString(parser.getQualifier(2)));
+        assertEquals(RichTsvParser.INDEXED_QUALIFIERS, parser.getExplode(3));
+        assertEquals("id", Bytes.toString(parser.getQualifier(3)));
+        assertTrue(parser.isTypedColumn(3));
+        assertEquals(RichTsvParser.NOT_EXPLODED, parser.getExplode(4));
+
+        byte[] lineBytes = Bytes.toBytes("Anarchism");
+        int length = parser.buildElementQualifier(2, lineBytes, 0, 4);
+        assertEquals("linkAnar", Bytes.toString(parser.getQualifierBuffer(), 0, length));
+        length = parser.buildIndexedQualifier(3, 120);
+        assertEquals("id120", Bytes.toString(parser.getQualifierBuffer(), 0, length));
+
+        // indexes name the columns as they are given
+        parser.setIndexes("links=m:link*");
+        assertEquals(2, parser.getIndexColumn(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTypedElementQualifiers() {
+        new RichTsvParser("HBASE_ROW_KEY,m:link*:int", "$");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyTables() {
+        StringBuilder indexes = new StringBuilder();
+        for (int i = 0; i < RichImportTsv.MAX_TABLES; i++) {
+            indexes.append("idx").append(i).append("=m:a,");
+        }
+        new RichTsvParser("HBASE_ROW_KEY,m:a", "$").setIndexes(indexes.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownIndexedColumn() {
+        new RichTsvParser("HBASE_ROW_KEY,m:a,idx/m:b", "$").setIndexes("titles=m:b");
+    }
+
+    @Test
+    public void testParsedLineIsReused() throws Exception {
+        RichTsvParser parser = new RichTsvParser("HBASE_ROW_KEY,cf:cq", "\t");
+        byte[] first = Bytes.toBytes("KEY1\tVALUE1");
+        byte[] second = Bytes.toBytes("KEY2\tVALUE2");
+
+        RichTsvParser.ParsedLine parsed = parser.parse(first, first.length);
+        assertSame(parsed, parser.parse(second, second.length));
+        assertEquals("VALUE2", column(parsed, 1));
+    }
+
+    @Test
+    public void testParseDoesNotAllocate() throws Exception {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        RichTsvParser parser = new RichTsvParser(
+                "HBASE_ROW_KEY,m:cat,m:im,m:main,m:talk,m:us,m:us_talk,m:oth,m:exter,m:templ,m:comm,m:minor,m:textdata", "\n");
+        byte[] lineBytes = Bytes.toBytes("REVISION 4781981\nCATEGORY A\nIMAGE\nMAIN B C\nTALK\nUSER\nUSER_TALK\n"
+                + "OTHER D\nEXTERNAL E\nTEMPLATE F\nCOMMENT G\nMINOR 1\nTEXTDATA 229");
+
+        // warm up, so that the measured calls run compiled code
+        int checksum = 0;
+        for (int i = 0; i < 100000; i++) {
+            checksum += parser.parse(lineBytes, lineBytes.length).getColumnCount();
+        }
+
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100000; i++) {
+            checksum += parser.parse(lineBytes, lineBytes.length).getColumnCount();
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(13 * 200000, checksum);
+        // allow for a few bytes allocated by the measurement itself
+        assertTrue("Parser allocated " + allocated + " bytes for 100000 records", allocated < 1024);
+    }
+}
@@ -0,0 +1,119 @@
+package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TestRowCoalescer {
+
+    private static final long TS = 1000;
+    private static final byte[][] FAMILIES = new byte[][]{Bytes.toBytes("f"), Bytes.toBytes("f")};
+    private static final byte[][] QUALIFIERS = new byte[][]{Bytes.toBytes("a"), Bytes.toBytes("b")};
+
+    // the values of the columns a and b, null for a missing one
+    private static List<KeyValue> record(String row, String a, String b) {
+        return record(row, TS, a, b);
+    }
+
+    private static List<KeyValue> record(String row, long timestamp, String a, String b) {
+        List<KeyValue> keyValues = new ArrayList<KeyValue>();
+        if (a != null) {
+            keyValues.add(new KeyValue(Bytes.toBytes(row), FAMILIES[0], QUALIFIERS[0], timestamp, Bytes.toBytes(a)));
+        }
+        if (b != null) {
+            keyValues.add(new KeyValue(Bytes.toBytes(row), FAMILIES[1], QUALIFIERS[1], timestamp, Bytes.toBytes(b)));
+        }
+        return keyValues;
+    }
+
+    private static List<KeyValue> evict(RowCoalescer coalescer) {
+        List<KeyValue> keyValues = new ArrayList<KeyValue>();
+        assertTrue(coalescer.evict(keyValues));
+        return keyValues;
+    }
+
+    private static String toString(KeyValue kv) {
+        return Bytes.toString(kv.getRow()) + "/" + Bytes.toString(kv.getQualifier())
+                + "/" + (TS - kv.getTimestamp()) + "=" + Bytes.toString(kv.getValue());
+    }
+
+    private static String toString(List<KeyValue> keyValues) {
+        StringBuilder sb = new StringBuilder();
+        for (KeyValue kv : keyValues) {
+            sb.append(sb.length() > 0 ? " " : "").append(toString(kv));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testLastWriteWins() {
+        RowCoalescer coalescer = new RowCoalescer(FAMILIES, QUALIFIERS, 1, Long.MAX_VALUE, false);
+        coalescer.add(record("r1", "1", "2"));
+        coalescer.add(record("r2", "x", "y"));
+        coalescer.add(record("r1", "3", null));
+        coalescer.add(record("r1", null, "4"));
+        assertFalse(coalescer.isFull());
+        assertEquals(2, coalescer.getCoalescedRecords());
+        assertEquals(2, coalescer.getCoalescedCells());
+
+        assertEquals("r2/a/0=x r2/b/0=y", toString(evict(coalescer)));
+        assertEquals("r1/a/0=3 r1/b/0=4", toString(evict(coalescer)));
+        assertFalse(coalescer.evict(new ArrayList<KeyValue>()));
+    }
+
+    @Test
+    public void testKeepVersions() {
+        RowCoalescer coalescer = new RowCoalescer(FAMILIES, QUALIFIERS, 2, Long.MAX_VALUE, false);
+        coalescer.add(record("r1", "1", "2"));
+        coalescer.add(record("r1", "3", null));
+        // the values of the same timestamp replace each other
+        assertEquals(1, coalescer.getCoalescedCells());
+        // the versions are sorted by timestamp, the oldest ones being dropped
+        coalescer.add(record("r1", TS - 5, "4", null));
+        assertEquals(1, coalescer.getCoalescedCells());
+        coalescer.add(record("r1", TS - 7, "6", null));
+        coalescer.add(record("r1", TS + 1, "7", null));
+        assertEquals(4, coalescer.getCoalescedRecords());
+        assertEquals(3, coalescer.getCoalescedCells());
+        assertEquals("r1/a/-1=7 r1/a/0=3 r1/b/0=2", toString(evict(coalescer)));
+    }
+
+    @Test
+    public void testShiftTimestamps() {
+        RowCoalescer coalescer = new RowCoalescer(FAMILIES, QUALIFIERS, 2, Long.MAX_VALUE, true);
+        coalescer.add(record("r1", "1", "2"));
+        coalescer.add(record("r1", "3", null));
+        coalescer.add(record("r1", "5", null));
+        assertEquals(2, coalescer.getCoalescedRecords());
+        assertEquals(1, coalescer.getCoalescedCells());
+        // the older versions get older timestamps
+        assertEquals("r1/a/0=5 r1/a/1=3 r1/b/0=2", toString(evict(coalescer)));
+    }
+
+    @Test
+    public void testEvictionOverLimit() {
+        List<KeyValue> record = record("r1", "1", "2");
+        RowCoalescer coalescer = new RowCoalescer(FAMILIES, QUALIFIERS, 1, 1000, false);
+        coalescer.add(record);
+        assertFalse(coalescer.isFull());
+        int i = 2;
+        while (!coalescer.isFull()) {
+            coalescer.add(record("r" + i++, "1", "2"));
+        }
+        // the row used last is evicted last
+        coalescer.add(record("r1", "3", "4"));
+        assertEquals("r2", Bytes.toString(evict(coalescer).get(0).getRow()));
+        assertFalse(coalescer.isFull());
+
+        String last = null;
+        List<KeyValue> keyValues = new ArrayList<KeyValue>();
+        while (coalescer.evict(keyValues)) {
+            last = toString(keyValues);
+            keyValues.clear();
+        }
+        assertEquals("r1/a/0=3 r1/b/0=4", last);
+    }
+}
@@ -0,0 +1,91 @@
+package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.GzipCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class TestRowKeySampler {
+
+    private static RowKeySampler.Sample sample(String row, long size) {
+        return new RowKeySampler.Sample(Bytes.toBytes(row), size);
+    }
+
+    private static void assertSplitKeys(String[] expected, byte[][] splitKeys) {
+        assertEquals(expected.length, splitKeys.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], Bytes.toString(splitKeys[i]));
+        }
+    }
+
+    @Test
+    public void testBalancedSplitKeys() {
+        List<RowKeySampler.Sample> samples = new ArrayList<RowKeySampler.Sample>();
+        for (int i = 9; i >= 0; i--) {
+            samples.add(sample("KEY" + i, 10));
+        }
+        assertSplitKeys(new String[]{"KEY5"}, RowKeySampler.getSplitKeys(samples, 2));
+        assertSplitKeys(new String[]{"KEY2", "KEY4", "KEY6", "KEY8"}, RowKeySampler.getSplitKeys(samples, 5));
+        assertSplitKeys(new String[]{}, RowKeySampler.getSplitKeys(samples, 1));
+    }
+
+    @Test
+    public void testWeightedSplitKeys() {
+        List<RowKeySampler.Sample> samples = new ArrayList<RowKeySampler.Sample>();
+        samples.add(sample("A", 100));
+        samples.add(sample("B", 10));
+        samples.add(sample("C", 10));
+        samples.add(sample("D", 80));
+        // a big record gets a region of its own
+        assertSplitKeys(new String[]{"B"}, RowKeySampler.getSplitKeys(samples, 2));
+    }
+
+    @Test
+    public void testDuplicatedAndEmptyKeysSkipped() {
+        List<RowKeySampler.Sample> samples = new ArrayList<RowKeySampler.Sample>();
+        samples.add(sample("", 10));
+        for (int i = 0; i < 8; i++) {
+            samples.add(sample("SAME", 10));
+        }
+        samples.add(sample("Z", 10));
+        assertSplitKeys(new String[]{"SAME", "Z"}, RowKeySampler.getSplitKeys(samples, 5));
+    }
+
+    @Test
+    public void testKeyValueSize() {
+        // matches the length of a KeyValue with a 4 bytes row, 2 bytes
+        // family, 3 bytes qualifier and 5 bytes value
+        assertEquals(4 + 4 + 2 + 4 + 1 + 2 + 3 + 8 + 1 + 5, RowKeySampler.getKeyValueSize(4, 2, 3, 5));
+    }
+
+    @Test
+    public void testCompressedInput() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setFloat(RowKeySampler.FRACTION_CONF_KEY, 1f);
+        CompressionCodec codec = ReflectionUtils.newInstance(GzipCodec.class, conf);
+        Path path = new Path(System.getProperty("java.io.tmpdir"), "TestRowKeySampler.dat" + codec.getDefaultExtension());
+        FileSystem.getLocal(conf).delete(path, false);
+        OutputStream out = codec.createOutputStream(FileSystem.getLocal(conf).create(path, true));
+        long outputBytes = 0;
+        for (int i = 0; i < 10000; i++) {
+            // repetitive values, which compress well
+            out.write(Bytes.toBytes("KEY" + i + "\tVALUEVALUEVALUEVALUE\n"));
+            outputBytes += RowKeySampler.getKeyValueSize(("KEY" + i).length(), 2, 2, 20);
+        }
+        out.close();
+
+        // the sampled part of the input is measured in compressed bytes, as
+        // the whole input is, so the whole input sampled is estimated exactly
+        RowKeySampler sampler = new RowKeySampler(conf, new RichImportTsv.RichTsvParser("HBASE_ROW_KEY,cf:cq", "\t"));
+        sampler.getSplitKeys(path);
+        assertEquals(outputBytes, sampler.getEstimatedOutputBytes(), outputBytes * 0.01);
+    }
+}
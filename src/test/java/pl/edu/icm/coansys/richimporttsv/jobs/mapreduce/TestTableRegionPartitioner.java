@@ -0,0 +1,54 @@
+package pl.edu.icm.coansys.richimporttsv.jobs.mapreduce;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import pl.edu.icm.coansys.richimporttsv.io.MultiTableHFileOutputFormat;
+import pl.edu.icm.coansys.richimporttsv.io.RegionStartKeys;
+
+public class TestTableRegionPartitioner {
+
+    private static KeyValue keyValue(String row) {
+        return new KeyValue(Bytes.toBytes(row), Bytes.toBytes("f"), Bytes.toBytes("q"), 1, Bytes.toBytes("v"));
+    }
+
+    // the index of the table followed by the key of the KeyValue
+    private static ImmutableBytesWritable sortKey(int table, KeyValue kv) {
+        byte[] key = new byte[1 + kv.getKeyLength()];
+        key[0] = (byte) table;
+        System.arraycopy(kv.getBuffer(), kv.getKeyOffset(), key, 1, kv.getKeyLength());
+        return new ImmutableBytesWritable(key);
+    }
+
+    @Test
+    public void testPartitionsByTableAndRegion() {
+        Configuration conf = new Configuration();
+        MultiTableHFileOutputFormat.setTables(conf, new String[]{"main", "index"});
+        RegionStartKeys.set(conf, "main", new byte[][]{new byte[0], Bytes.toBytes("m")});
+        RegionStartKeys.set(conf, "index", new byte[][]{new byte[0]});
+        assertEquals(3, TableRegionPartitioner.getPartitionCount(conf));
+
+        TableRegionPartitioner partitioner = new TableRegionPartitioner();
+        partitioner.setConf(conf);
+        KeyValue a = keyValue("a");
+        KeyValue z = keyValue("z");
+        assertEquals(0, partitioner.getPartition(sortKey(0, a), a, 3));
+        assertEquals(1, partitioner.getPartition(sortKey(0, z), z, 3));
+        assertEquals(2, partitioner.getPartition(sortKey(1, a), a, 3));
+        assertEquals(2, partitioner.getPartition(sortKey(1, z), z, 3));
+    }
+
+    @Test
+    public void testSortsByTableFirst() {
+        TableKeyValueKeyComparator comparator = new TableKeyValueKeyComparator();
+        KeyValue a = keyValue("a");
+        KeyValue z = keyValue("z");
+        assertTrue(comparator.compare(sortKey(0, a), sortKey(0, z)) < 0);
+        assertTrue(comparator.compare(sortKey(0, z), sortKey(1, a)) < 0);
+        assertTrue(comparator.compare(sortKey(1, a), sortKey(0, z)) > 0);
+        assertEquals(0, comparator.compare(sortKey(1, z), sortKey(1, z)));
+    }
+}